@@ -0,0 +1,40 @@
+package crawler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Storage backend of {@link CachingDownloader}.
+ * A record starts with {@code '+'} followed by the page
+ * or with {@code '-'} followed by the error message, see {@link CachingDownloader#readCached}.
+ */
+public interface CacheStore extends Closeable {
+    /**
+     * Returns the record stored for the URL or {@code null} if there is none.
+     */
+    InputStream read(String url) throws IOException;
+
+    /**
+     * Stores the record for the URL, replacing the previous one.
+     */
+    void write(String url, InputStream record) throws IOException;
+
+    /**
+     * Returns the file holding the record for the URL, or {@code null} if there is none
+     * or the store does not keep records in separate files.
+     * The file is not modified while it exists, new records replace it.
+     */
+    default Path locate(String url) throws IOException {
+        return null;
+    }
+
+    /**
+     * Returns identity of the record for the URL, which changes whenever the record is replaced,
+     * or {@code 0} if there is no record or the store cannot tell.
+     */
+    default long identity(String url) throws IOException {
+        return 0;
+    }
+}
@@ -2,22 +2,64 @@ package crawler;
 
 import java.io.*;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Downloads pages from upstream downloader and stores them in the local cache;
+ * <p>
+ * Safe for concurrent use: concurrent misses on the same URL share a single upstream download.
+ * Small records are additionally kept in a size-bounded in-memory LRU tier in front of the store.
+ * Hits, misses and upstream errors are counted in the given metrics, {@link CrawlMetrics#global()} by default.
+ * Upstream errors are cached, unless they are transient.
+ * Records the store keeps in files are copied by {@link #downloadTo} within the kernel.
  *
  * @author Georgiy Korneev (kgeorgiy@kgeorgiy.info)
  */
 public class CachingDownloader implements Downloader {
     private final Downloader upstream;
-    private final Path directory;
+    private final CacheStore store;
+    private final HotTier hot;
+    private final CrawlMetrics metrics;
+    private final ConcurrentMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
     private static final byte[] OK = {(byte) '+'};
+    private static final long HOT_TIER_SIZE = 32 << 20;
+    private static final int HOT_RECORD_SIZE = 64 << 10;
+    private static final int BUFFER_SIZE = 8 << 10;
 
     public CachingDownloader(final Downloader upstream, final String directory) throws IOException {
+        this(upstream, new FileCacheStore(Paths.get(directory)));
+    }
+
+    public CachingDownloader(final Downloader upstream, final CacheStore store) {
+        this(upstream, store, HOT_TIER_SIZE, HOT_RECORD_SIZE);
+    }
+
+    /**
+     * Creates caching downloader with the given in-memory tier.
+     *
+     * @param hotTierSize total size of records kept in memory, {@code 0} disables the tier
+     * @param hotRecordSize maximal size of a record kept in memory
+     */
+    public CachingDownloader(final Downloader upstream, final CacheStore store, final long hotTierSize, final int hotRecordSize) {
+        this(upstream, store, hotTierSize, hotRecordSize, CrawlMetrics.global());
+    }
+
+    /**
+     * Creates caching downloader with the given in-memory tier, counting hits, misses and errors in the given metrics.
+     */
+    public CachingDownloader(final Downloader upstream, final CacheStore store, final long hotTierSize, final int hotRecordSize, final CrawlMetrics metrics) {
         this.upstream = upstream;
-        this.directory = Paths.get(directory);
-        createDirectory(this.directory);
+        this.store = store;
+        this.hot = hotTierSize > 0 && hotRecordSize > 0 ? new HotTier(hotTierSize, hotRecordSize) : null;
+        this.metrics = metrics;
     }
 
     public static void createDirectory(final Path directory) throws IOException {
@@ -31,17 +73,92 @@ public class CachingDownloader implements Downloader {
 
     @Override
     public InputStream download(final String url) throws IOException {
-        final Path file = directory.resolve(encode(url));
-        if (Files.notExists(file)) {
-            upstream(url, file);
+        if (hot != null) {
+            final byte[] record = hot.get(url);
+            if (record != null) {
+                metrics.cacheHit();
+                return readCached(url, new ByteArrayInputStream(record));
+            }
+        }
+        InputStream is = store.read(url);
+        if (is == null) {
+            metrics.cacheMiss();
+            fetch(url);
+            is = store.read(url);
         } else {
-//            System.out.println("Already downloaded " + url);
+            metrics.cacheHit();
+        }
+        if (is == null) {
+            throw new AssertionError("Record for " + url + " was not stored");
+        }
+        return readCached(url, hot == null ? is : hot.offer(url, is));
+    }
+
+    @Override
+    public long identity(final String url) throws IOException {
+        return store.identity(url);
+    }
+
+    /**
+     * Copies the stored record past its marker with {@link FileChannel#transferTo},
+     * falling back to a stream copy if the store cannot locate the record.
+     */
+    @Override
+    public void downloadTo(final String url, final Path file) throws IOException {
+        final Path record = store.locate(url);
+        if (record == null) {
+            Downloader.super.downloadTo(url, file);
+            return;
         }
+        metrics.cacheHit();
+        try (final FileChannel in = FileChannel.open(record)) {
+            readCached(url, Channels.newInputStream(in));
+            try (final FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final long size = in.size();
+                long position = in.position();
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads the URL from upstream, unless another thread is already doing so.
+     * Returns when the record is stored. If the other thread fails without storing a record,
+     * one of its waiters downloads the URL again, so the failure is reported to its own thread only.
+     */
+    private void fetch(final String url) throws IOException {
+        while (true) {
+            final CompletableFuture<Void> download = new CompletableFuture<>();
+            final CompletableFuture<Void> existing = inFlight.putIfAbsent(url, download);
+            if (existing == null) {
+                lead(url, download);
+                return;
+            }
+            existing.join();
+            final InputStream is = store.read(url);
+            if (is != null) {
+                is.close();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Downloads the URL unless it is already stored, then lets the waiters check the store.
+     */
+    private void lead(final String url, final CompletableFuture<Void> download) throws IOException {
         try {
-            final InputStream is = Files.newInputStream(file);
-            return readCached(url, is);
-        } catch (FileSystemException e) {
-            throw new AssertionError(e);
+            final InputStream is = store.read(url);
+            if (is == null) {
+                upstream(url);
+            } else {
+                is.close();
+            }
+        } finally {
+            inFlight.remove(url, download);
+            download.complete(null);
         }
     }
 
@@ -65,23 +182,87 @@ public class CachingDownloader implements Downloader {
         }
     }
 
-    private void upstream(final String url, final Path file) {
+    /**
+     * Downloads the URL from upstream and stores the record. Errors are stored as well,
+     * except for {@linkplain TransientIOException#isTransient transient} ones, which are rethrown.
+     */
+    private void upstream(final String url) throws IOException {
         try {
-            System.out.println("Downloading " + url);
+            Logger.log("Downloading " + url);
             try (final InputStream is = upstream.download(url)) {
                 final SequenceInputStream sis = new SequenceInputStream(new ByteArrayInputStream(OK), is);
-                Files.copy(sis, file, StandardCopyOption.REPLACE_EXISTING);
+                store.write(url, sis);
             }
-            System.out.println("Downloaded " + url);
+            Logger.log("Downloaded " + url);
         } catch (IOException e) {
-            System.out.println("Error downloading " + url + ": " + e.getMessage());
+            metrics.cacheError();
+            Logger.log("Error downloading " + url + ": " + e.getMessage());
+            if (TransientIOException.isTransient(e)) {
+                throw e;
+            }
             try {
-                try (final DataOutputStream os = new DataOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE))) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (final DataOutputStream os = new DataOutputStream(bytes)) {
                     os.write('-');
-                    os.writeUTF(e.getMessage());
+                    os.writeUTF(String.valueOf(e.getMessage()));
                 }
+                store.write(url, new ByteArrayInputStream(bytes.toByteArray()));
             } catch (IOException ee) {
-                throw new AssertionError("Cannot write error info for " + url + " to " + file, ee);
+                throw new AssertionError("Cannot write error info for " + url + " to " + store, ee);
+            }
+        }
+    }
+
+    /**
+     * Size-bounded LRU map of small records.
+     */
+    private static class HotTier {
+        private final long capacity;
+        private final int maxRecordSize;
+        private final LinkedHashMap<String, byte[]> records = new LinkedHashMap<>(16, 0.75f, true);
+        private long size;
+
+        private HotTier(final long capacity, final int maxRecordSize) {
+            this.capacity = capacity;
+            this.maxRecordSize = maxRecordSize;
+        }
+
+        private synchronized byte[] get(final String url) {
+            return records.get(url);
+        }
+
+        /**
+         * Reads the record into memory if it is small enough.
+         * Returns a stream with the whole record.
+         */
+        private InputStream offer(final String url, final InputStream is) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                int read;
+                while ((read = is.read(buffer)) >= 0) {
+                    bytes.write(buffer, 0, read);
+                    if (bytes.size() > maxRecordSize) {
+                        return new SequenceInputStream(new ByteArrayInputStream(bytes.toByteArray()), is);
+                    }
+                }
+            } catch (final IOException | RuntimeException e) {
+                is.close();
+                throw e;
+            }
+            is.close();
+            final byte[] record = bytes.toByteArray();
+            put(url, record);
+            return new ByteArrayInputStream(record);
+        }
+
+        private synchronized void put(final String url, final byte[] record) {
+            final byte[] previous = records.put(url, record);
+            size += record.length - (previous == null ? 0 : previous.length);
+            final Iterator<Map.Entry<String, byte[]>> eldest = records.entrySet().iterator();
+            while (size > capacity && eldest.hasNext()) {
+                size -= eldest.next().getValue().length;
+                eldest.remove();
             }
         }
     }
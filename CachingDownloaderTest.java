@@ -0,0 +1,166 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests concurrent misses of {@link CachingDownloader}.
+ */
+public class CachingDownloaderTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final String BODY = "<html><head><title>Hello</title></head><body>Hello, world!</body></html>";
+    private static final String URL = "http://www.example.com/";
+    private static final int THREADS = 16;
+
+    public static void main(String[] args) throws IOException {
+        testConcurrentMisses();
+        testTransientFailure();
+        testUnexpectedFailure();
+        testPermanentFailure();
+        COUNTER.printStatus(CachingDownloaderTest.class);
+    }
+
+    private static void testConcurrentMisses() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing concurrent misses");
+        GatedDownloader upstream = new GatedDownloader(null);
+        List<String> results = crawl(upstream);
+        Asserts.assertEquals("Requests", 1, upstream.requests.get());
+        for (String result : results) {
+            Asserts.assertEquals("Body", BODY, result);
+        }
+        COUNTER.passed();
+    }
+
+    private static void testTransientFailure() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing transient failure of the leader");
+        GatedDownloader upstream = new GatedDownloader(new SocketTimeoutException("Read timed out"));
+        List<String> results = crawl(upstream);
+        Asserts.assertEquals("Requests", 2, upstream.requests.get());
+        Asserts.assertEquals("Failures", 1L, results.stream().filter(result -> !BODY.equals(result)).count());
+        COUNTER.passed();
+    }
+
+    private static void testUnexpectedFailure() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing unexpected failure of the leader");
+        GatedDownloader upstream = new GatedDownloader(new IllegalStateException("Broken upstream"));
+        List<String> results = crawl(upstream);
+        Asserts.assertEquals("Requests", 2, upstream.requests.get());
+        Asserts.assertEquals("Failures", 1L, results.stream().filter(result -> !BODY.equals(result)).count());
+        COUNTER.passed();
+    }
+
+    private static void testPermanentFailure() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing permanent failure of the leader");
+        GatedDownloader upstream = new GatedDownloader(new IOException("HTTP 404 Not Found"));
+        List<String> results = crawl(upstream);
+        Asserts.assertEquals("Requests", 1, upstream.requests.get());
+        for (String result : results) {
+            Asserts.assertEquals("Cached error", "HTTP 404 Not Found", result);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Downloads the URL from {@value #THREADS} threads at once, while the first upstream request is held.
+     * Returns the bodies, or the messages of the errors.
+     */
+    private static List<String> crawl(GatedDownloader upstream) throws IOException {
+        Path directory = Files.createTempDirectory("cache");
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try (FileCacheStore store = new FileCacheStore(directory)) {
+            CrawlMetrics metrics = new CrawlMetrics();
+            CachingDownloader downloader = new CachingDownloader(upstream, store, 1 << 20, 1 << 10, metrics);
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        return DownloaderTests.readString(downloader, URL);
+                    } catch (IOException | RuntimeException e) {
+                        return e.getMessage();
+                    }
+                }));
+            }
+            await(upstream.entered);
+            while (metrics.getCacheMisses() < THREADS) {
+                Thread.yield();
+            }
+            sleep(100);
+            upstream.released.countDown();
+            List<String> results = new ArrayList<>();
+            for (Future<String> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError(e);
+        } finally {
+            executor.shutdownNow();
+            DownloaderTests.delete(directory);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            Asserts.assertTrue("Timed out", latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Downloader holding its first request until released, then failing it with the given error, if any.
+     */
+    private static class GatedDownloader implements Downloader {
+        private final Exception failure;
+        private final AtomicInteger requests = new AtomicInteger();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        private GatedDownloader(Exception failure) {
+            this.failure = failure;
+        }
+
+        @Override
+        public InputStream download(String url) throws IOException {
+            if (requests.incrementAndGet() == 1) {
+                entered.countDown();
+                await(released);
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                } else if (failure != null) {
+                    throw (RuntimeException) failure;
+                }
+            }
+            return new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
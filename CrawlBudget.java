@@ -0,0 +1,97 @@
+package crawler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits of a single crawl, see {@link SimpleWebCrawler#crawl(String, int, CrawlBudget)}.
+ * <p>
+ * When any limit is reached, the crawl stops downloading pages and images.
+ * Pages already queued are added without downloading, like pages at the maximal depth,
+ * and images not yet downloaded are kept without a file. No limits are set by default.
+ */
+public class CrawlBudget {
+    /**
+     * Limit that can stop a crawl.
+     */
+    public enum Limit {
+        PAGES, BYTES, IMAGES, TIME
+    }
+
+    private int maxPages = Integer.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+    private int maxImages = Integer.MAX_VALUE;
+    private long timeLimitNanos = Long.MAX_VALUE;
+
+    /**
+     * Sets the maximal number of pages to download, failed downloads included.
+     */
+    public void setMaxPages(int maxPages) {
+        if (maxPages < 0) {
+            throw new IllegalArgumentException("Maximal number of pages should be non-negative");
+        }
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * Sets the maximal total size of downloaded pages; the page crossing the limit is kept whole.
+     */
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Maximal number of bytes should be non-negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Sets the maximal number of images to download.
+     */
+    public void setMaxImages(int maxImages) {
+        if (maxImages < 0) {
+            throw new IllegalArgumentException("Maximal number of images should be non-negative");
+        }
+        this.maxImages = maxImages;
+    }
+
+    /**
+     * Sets the maximal duration of the crawl. The page being downloaded when it expires is waited for,
+     * image downloads are cancelled.
+     */
+    public void setTimeLimit(long duration, TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Time limit should be non-negative");
+        }
+        this.timeLimitNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Returns the limit preventing download of one more page, or {@code null} if there is none.
+     *
+     * @param startNanos {@link System#nanoTime()} at the start of the crawl
+     */
+    Limit pageLimit(int pages, long bytes, long startNanos) {
+        if (pages >= maxPages) {
+            return Limit.PAGES;
+        } else if (bytes >= maxBytes) {
+            return Limit.BYTES;
+        } else if (System.nanoTime() - startNanos >= timeLimitNanos) {
+            return Limit.TIME;
+        }
+        return null;
+    }
+
+    /**
+     * Returns {@link System#nanoTime()} the time limit expires at.
+     *
+     * @param startNanos {@link System#nanoTime()} at the start of the crawl
+     */
+    long deadline(long startNanos) {
+        return startNanos + timeLimitNanos;
+    }
+
+    /**
+     * Returns whether one more image may be downloaded.
+     */
+    boolean allowsImage(int images) {
+        return images < maxImages;
+    }
+}
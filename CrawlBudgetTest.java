@@ -0,0 +1,232 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Tests crawls of {@link SimpleWebCrawler} stopped by a {@link CrawlBudget}.
+ */
+public class CrawlBudgetTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final String ROOT = DownloaderTests.page(0);
+
+    public static void main(String[] args) throws IOException {
+        testPages();
+        testBytes();
+        testParsedPages();
+        testResumed();
+        testImages();
+        testTime();
+        COUNTER.printStatus(CrawlBudgetTest.class);
+    }
+
+    private static void testPages() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing page budget");
+        Page expected = new SimpleWebCrawler(site()).crawl(ROOT, 7);
+
+        CrawlBudget budget = new CrawlBudget();
+        budget.setMaxPages(20);
+        DownloaderTests.NumberedSite site = site();
+        CrawlResult result = new SimpleWebCrawler(site).crawl(ROOT, 7, budget);
+        Asserts.assertEquals("Limit", CrawlBudget.Limit.PAGES, result.getLimit());
+        Asserts.assertEquals("Downloads", 20, site.getDownloads());
+        Asserts.assertEquals("Pages", 20, checkGraph(expected, result.getRoot()));
+        COUNTER.passed();
+    }
+
+    private static void testBytes() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing byte budget");
+        Downloader downloader = site();
+        Page expected = new SimpleWebCrawler(downloader).crawl(ROOT, 7);
+
+        CrawlBudget budget = new CrawlBudget();
+        budget.setMaxBytes(45_000);
+        CrawlResult result = new SimpleWebCrawler(downloader).crawl(ROOT, 7, budget);
+        Asserts.assertEquals("Limit", CrawlBudget.Limit.BYTES, result.getLimit());
+        Asserts.assertEquals("Pages", 5, checkGraph(expected, result.getRoot()));
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that pages taken from the parsed page cache count towards the byte budget.
+     */
+    private static void testParsedPages() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing byte budget with parsed pages");
+        Path cache = Files.createTempDirectory("cache");
+        Path parsed = Files.createTempDirectory("parsed");
+        try (FileCacheStore store = new FileCacheStore(cache)) {
+            CachingDownloader downloader = new CachingDownloader(site(), store);
+            for (int run = 0; run < 2; run++) {
+                CrawlBudget budget = new CrawlBudget();
+                budget.setMaxBytes(45_000);
+                SimpleWebCrawler crawler = new SimpleWebCrawler(downloader);
+                crawler.setParsedPageCache(parsed);
+                CrawlResult result = crawler.crawl(ROOT, 7, budget);
+                Asserts.assertEquals("Limit of run " + run, CrawlBudget.Limit.BYTES, result.getLimit());
+                Asserts.assertEquals("Pages of run " + run, 5, checkGraph(null, result.getRoot()));
+            }
+        } finally {
+            DownloaderTests.delete(cache);
+            DownloaderTests.delete(parsed);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that pages replayed from a checkpoint count towards the byte budget.
+     */
+    private static void testResumed() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing byte budget of resumed crawl");
+        Downloader site = site();
+        Page expected = new SimpleWebCrawler(site).crawl(ROOT, 7);
+        Path checkpoint = Files.createTempFile("checkpoint", ".log");
+        try {
+            AtomicInteger downloads = new AtomicInteger();
+            SimpleWebCrawler crashing = new SimpleWebCrawler(url -> {
+                if (downloads.incrementAndGet() > 3) {
+                    throw new IllegalStateException("Crawler killed");
+                }
+                return site.download(url);
+            });
+            crashing.setCheckpoint(checkpoint, 1);
+            CrawlBudget budget = new CrawlBudget();
+            budget.setMaxBytes(45_000);
+            try {
+                crashing.crawl(ROOT, 7, budget);
+                throw new AssertionError("Crawl was not killed");
+            } catch (IllegalStateException e) {
+                System.err.println("Expected error: " + e.getMessage());
+            }
+
+            DownloaderTests.NumberedSite resumedSite = site();
+            SimpleWebCrawler resumed = new SimpleWebCrawler(resumedSite);
+            resumed.setCheckpoint(checkpoint, 1);
+            CrawlResult result = resumed.crawl(ROOT, 7, budget);
+            Asserts.assertEquals("Limit", CrawlBudget.Limit.BYTES, result.getLimit());
+            Asserts.assertEquals("Downloads", 2, resumedSite.getDownloads());
+            Asserts.assertEquals("Pages", 5, checkGraph(expected, result.getRoot()));
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+        COUNTER.passed();
+    }
+
+    private static void testImages() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing image budget");
+        Path images = Files.createTempDirectory("images");
+        try {
+            SimpleWebCrawler crawler = new SimpleWebCrawler(new DownloaderTests.NumberedSite(3).size(1000).images(2));
+            crawler.setImageDirectory(images);
+            CrawlBudget budget = new CrawlBudget();
+            budget.setMaxImages(5);
+            CrawlResult result = crawler.crawl(ROOT, 3, budget);
+            Asserts.assertEquals("Limit", CrawlBudget.Limit.IMAGES, result.getLimit());
+            try (Stream<Path> files = Files.list(images)) {
+                Asserts.assertEquals("Image files", 5L, files.count());
+            }
+            checkGraph(null, result.getRoot());
+        } finally {
+            DownloaderTests.delete(images);
+        }
+        COUNTER.passed();
+    }
+
+    private static void testTime() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing time budget");
+        Path images = Files.createTempDirectory("images");
+        try {
+            SimpleWebCrawler crawler = new SimpleWebCrawler(new DownloaderTests.NumberedSite(3).size(1000).images(4).latency(20));
+            crawler.setImageDirectory(images);
+            crawler.setImageThreads(1, 1000);
+            CrawlBudget budget = new CrawlBudget();
+            budget.setTimeLimit(500, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            CrawlResult result = crawler.crawl(ROOT, 8, budget);
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Asserts.assertEquals("Limit", CrawlBudget.Limit.TIME, result.getLimit());
+            Asserts.assertTrue("Pending images are waited for: " + millis + " ms", millis < 3000);
+            checkGraph(null, result.getRoot());
+        } finally {
+            DownloaderTests.delete(images);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Returns a site of pages of exactly 10000 bytes, page {@code i} linking to pages {@code 3i + 1} to {@code 3i + 3}.
+     */
+    private static DownloaderTests.NumberedSite site() {
+        return new DownloaderTests.NumberedSite(3).size(10_000);
+    }
+
+    /**
+     * Checks that pages of a crawl stopped by a budget are either complete or stubs
+     * with empty titles and neither links nor images, returns the number of complete pages.
+     *
+     * @param expected root of the complete crawl to compare complete pages with, or {@code null}
+     */
+    private static int checkGraph(Page expected, Page root) {
+        Map<String, Page> complete = new HashMap<>();
+        if (expected != null) {
+            collect(expected, complete);
+        }
+        Map<String, Page> pages = new HashMap<>();
+        collect(root, pages);
+        int downloaded = 0;
+        for (Page page : pages.values()) {
+            if (page.getTitle().isEmpty()) {
+                Asserts.assertTrue("Links of stub " + page.getUrl(), page.getLinks().isEmpty());
+                Asserts.assertTrue("Images of stub " + page.getUrl(), page.getImages().isEmpty());
+                continue;
+            }
+            downloaded++;
+            for (Page link : page.getLinks()) {
+                Asserts.assertTrue("Back link from " + page.getUrl(), link.getBackLinks().contains(page));
+            }
+            Page other = complete.get(page.getUrl());
+            if (other != null) {
+                Asserts.assertEquals("Title of " + page.getUrl(), other.getTitle(), page.getTitle());
+                Asserts.assertEquals("Links of " + page.getUrl(), urls(other.getLinks()), urls(page.getLinks()));
+            }
+        }
+        return downloaded;
+    }
+
+    private static void collect(Page root, Map<String, Page> pages) {
+        Deque<Page> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            Page page = queue.poll();
+            if (pages.putIfAbsent(page.getUrl(), page) == null) {
+                queue.addAll(page.getLinks());
+            }
+        }
+    }
+
+    private static List<String> urls(List<Page> pages) {
+        List<String> urls = new ArrayList<>();
+        for (Page page : pages) {
+            urls.add(page.getUrl());
+        }
+        return urls;
+    }
+}
@@ -0,0 +1,36 @@
+package crawler;
+
+/**
+ * Receives results of a streaming crawl as they are produced, see {@link SimpleWebCrawler#crawl(String, int, CrawlListener)}.
+ * <p>
+ * All methods are called from the crawling thread, so a slow listener slows the crawl down
+ * instead of letting results pile up in memory. This gives the back-pressure of a
+ * {@link java.util.concurrent.Flow.Publisher} without subscriptions, demand accounting or buffers.
+ */
+public interface CrawlListener {
+    /**
+     * Called once for every visited page, before its images and links.
+     *
+     * @param title page title, empty if the page was not downloaded
+     */
+    void pageFetched(String url, String title);
+
+    /**
+     * Called for every image on the page, in order of appearance.
+     */
+    default void imageFound(String pageUrl, String imageUrl) {
+    }
+
+    /**
+     * Called for every link on the page, in order of appearance; the target URL is canonical.
+     * Targets that are not visited are reported too.
+     */
+    default void linkDiscovered(String pageUrl, String targetUrl) {
+    }
+
+    /**
+     * Called once for every image that was successfully downloaded.
+     */
+    default void imageStored(String imageUrl, String file) {
+    }
+}
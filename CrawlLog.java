@@ -0,0 +1,279 @@
+package crawler;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only checkpoint of a crawl.
+ * <p>
+ * The log records the outcome and the downloaded size of every page, in processing order, and of every image download.
+ * Since a crawl is deterministic given these outcomes, replaying the logged pages restores
+ * the frontier, the visited pages and the extracted links without downloading anything.
+ * Records are length-prefixed, so a record torn by a crash is detected and discarded.
+ * Image methods are thread-safe, page methods should be called from the crawling thread.
+ */
+class CrawlLog implements Closeable {
+    private static final int MAGIC = 0x43524C47;
+    private static final int VERSION = 2;
+    private static final byte HEADER = 'H';
+    private static final byte PAGE = 'P';
+    private static final byte FAILED = 'F';
+    private static final byte IMAGE = 'I';
+
+    private final Path file;
+    private final int flushInterval;
+    private final Map<String, String> images = new HashMap<>();
+    private DataInputStream replay;
+    private int pagesLeft;
+    private DataOutputStream out;
+    private int unflushed;
+
+    /**
+     * Opens the log, preparing replay of the records left by the previous run of the same crawl.
+     *
+     * @param flushInterval number of pages between flushes of the log
+     */
+    CrawlLog(Path file, String url, int depth, int flushInterval) throws IOException {
+        this.file = file;
+        this.flushInterval = flushInterval;
+        long valid = Files.exists(file) ? scan(url, depth) : 0;
+        if (valid > 0) {
+            replay = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+            readRecord();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(valid);
+        }
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.APPEND)));
+        if (valid == 0) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeByte(HEADER);
+            record.writeInt(MAGIC);
+            record.writeInt(VERSION);
+            writeString(record, url);
+            record.writeInt(depth);
+            append(bytes.toByteArray());
+        }
+    }
+
+    /**
+     * Reads image records and returns the length of the valid prefix of the log,
+     * or zero if the log belongs to another crawl. The prefix ends before the first torn or malformed record.
+     */
+    private long scan(String url, int depth) throws IOException {
+        long size = Files.size(file);
+        long valid = 0;
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                byte[] bytes;
+                try {
+                    int length = is.readInt();
+                    if (length <= 0 || length > size - valid - 4) {
+                        return valid;
+                    }
+                    bytes = new byte[length];
+                    is.readFully(bytes);
+                } catch (EOFException e) {
+                    return valid;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    byte type = record.readByte();
+                    if (valid == 0) {
+                        if (type != HEADER || record.readInt() != MAGIC || record.readInt() != VERSION || !readString(record).equals(url) || record.readInt() != depth) {
+                            return 0;
+                        }
+                    } else if (type == PAGE) {
+                        record.readLong();
+                        readDocument(record);
+                        pagesLeft++;
+                    } else if (type == FAILED) {
+                        record.readLong();
+                        pagesLeft++;
+                    } else if (type == IMAGE) {
+                        String image = readString(record);
+                        images.put(image, record.readBoolean() ? readString(record) : null);
+                    } else {
+                        return valid;
+                    }
+                } catch (IOException e) {
+                    return valid;
+                }
+                valid += 4 + bytes.length;
+            }
+        }
+    }
+
+    /**
+     * Returns whether there are logged pages left to replay.
+     */
+    public boolean replaying() {
+        return pagesLeft > 0;
+    }
+
+    /**
+     * Returns the next logged page and its downloaded size, the document is {@code null} if the download failed.
+     */
+    public ParsedPageCache.Entry replay() throws IOException {
+        if (pagesLeft == 0) {
+            throw new EOFException("No more pages in " + file);
+        }
+        while (true) {
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(readRecord()));
+            byte type = record.readByte();
+            if (type == PAGE || type == FAILED) {
+                if (--pagesLeft == 0) {
+                    replay.close();
+                    replay = null;
+                }
+                long bytes = record.readLong();
+                return new ParsedPageCache.Entry(type == PAGE ? readDocument(record) : null, bytes);
+            }
+        }
+    }
+
+    private byte[] readRecord() throws IOException {
+        byte[] bytes = new byte[replay.readInt()];
+        replay.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns whether a download of the image was logged.
+     */
+    public synchronized boolean containsImage(String url) {
+        return images.containsKey(url);
+    }
+
+    /**
+     * Returns file of the logged image download or {@code null} if it failed.
+     */
+    public synchronized String imageFile(String url) {
+        return images.get(url);
+    }
+
+    /**
+     * Appends a downloaded page, {@code null} if download failed.
+     *
+     * @param pageBytes number of bytes downloaded for the page
+     */
+    public void page(Document document, long pageBytes) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(document == null ? FAILED : PAGE);
+        record.writeLong(pageBytes);
+        if (document != null) {
+            writeDocument(record, document);
+        }
+        synchronized (this) {
+            append(bytes.toByteArray());
+            if (++unflushed >= flushInterval) {
+                out.flush();
+                unflushed = 0;
+            }
+        }
+    }
+
+    /**
+     * Appends a finished image download, {@code file} is {@code null} if download failed.
+     */
+    public void image(String url, String file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(IMAGE);
+        writeString(record, url);
+        record.writeBoolean(file != null);
+        if (file != null) {
+            writeString(record, file);
+        }
+        synchronized (this) {
+            append(bytes.toByteArray());
+        }
+    }
+
+    private void append(byte[] record) throws IOException {
+        out.writeInt(record.length);
+        out.write(record);
+    }
+
+    /**
+     * Writes title, images and links of the page.
+     */
+    static void writeDocument(DataOutputStream os, Document document) throws IOException {
+        writeString(os, document.getTitle());
+        writeStrings(os, document.getImages());
+        writeStrings(os, document.getLinks());
+    }
+
+    static Document readDocument(DataInputStream is) throws IOException {
+        String title = readString(is);
+        return Document.restore(title, readStrings(is), readStrings(is));
+    }
+
+    private static void writeString(DataOutputStream os, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    private static String readString(DataInputStream is) throws IOException {
+        int length = is.readInt();
+        if (length < 0) {
+            throw new IOException("Negative string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        is.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeStrings(DataOutputStream os, List<String> strings) throws IOException {
+        os.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(os, s);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream is) throws IOException {
+        int size = is.readInt();
+        if (size < 0) {
+            throw new IOException("Negative number of strings " + size);
+        }
+        List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(readString(is));
+        }
+        return strings;
+    }
+
+    /**
+     * Flushes the log and closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (replay != null) {
+            replay.close();
+            replay = null;
+        }
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    /**
+     * Closes the log and removes it.
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,240 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests {@link CrawlLog} and crawls of {@link SimpleWebCrawler} resumed from checkpoints.
+ */
+public class CrawlLogTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final int PAGES = 200;
+    private static final int DEPTH = 6;
+    private static final String ROOT = DownloaderTests.page(0);
+
+    public static void main(String[] args) throws IOException {
+        testReplay();
+        testResume(1, 0);
+        testResume(10, 0);
+        testResume(1, 30);
+        testTruncated();
+        testMalformed();
+        testOtherCrawl();
+        COUNTER.printStatus(CrawlLogTest.class);
+    }
+
+    private static void testReplay() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing replay");
+        Path file = Files.createTempFile("checkpoint", ".log");
+        try {
+            String image = DownloaderTests.page(1) + ".png";
+            String failedImage = DownloaderTests.page(2) + ".png";
+            Document first = Document.restore("First", Collections.singletonList(image), Arrays.asList(DownloaderTests.page(1), DownloaderTests.page(2)));
+            Document second = Document.restore("Second", Collections.emptyList(), Collections.emptyList());
+            try (CrawlLog log = new CrawlLog(file, ROOT, DEPTH, 1)) {
+                Asserts.assertTrue("New log replays", !log.replaying());
+                log.page(first, 100);
+                log.image(image, "image.png");
+                log.page(null, 10);
+                log.image(failedImage, null);
+                log.page(second, 200);
+            }
+            try (CrawlLog log = new CrawlLog(file, ROOT, DEPTH, 1)) {
+                Asserts.assertTrue("Image", log.containsImage(image));
+                Asserts.assertEquals("Image file", "image.png", log.imageFile(image));
+                Asserts.assertTrue("Failed image", log.containsImage(failedImage));
+                Asserts.assertEquals("Failed image file", null, log.imageFile(failedImage));
+                Asserts.assertTrue("Unknown image", !log.containsImage(DownloaderTests.page(3) + ".png"));
+                checkEntry(first, 100, log.replay());
+                checkEntry(null, 10, log.replay());
+                checkEntry(second, 200, log.replay());
+                Asserts.assertTrue("Replay ends", !log.replaying());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        COUNTER.passed();
+    }
+
+    private static void checkEntry(Document expected, long bytes, ParsedPageCache.Entry entry) {
+        Asserts.assertEquals("Bytes", bytes, entry.bytes);
+        if (expected == null) {
+            Asserts.assertEquals("Document", null, entry.document);
+        } else {
+            Asserts.assertEquals("Title", expected.getTitle(), entry.document.getTitle());
+            Asserts.assertEquals("Images", expected.getImages(), entry.document.getImages());
+            Asserts.assertEquals("Links", expected.getLinks(), entry.document.getLinks());
+        }
+    }
+
+    /**
+     * Kills a crawl after {@code killAfter} page downloads, drops {@code lost} bytes from the end of the checkpoint,
+     * as a crash before a flush would, then checks that the resumed crawl builds the graph of an uninterrupted one
+     * and downloads no logged page again.
+     */
+    private static void testResume(int interval, int lost) throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing resume with interval " + interval + ", " + lost + " bytes lost");
+        Page expected = new SimpleWebCrawler(site()).crawl(ROOT, DEPTH);
+        Path checkpoint = Files.createTempFile("checkpoint", ".log");
+        try {
+            kill(checkpoint, interval, 25);
+            try (RandomAccessFile file = new RandomAccessFile(checkpoint.toFile(), "rw")) {
+                file.setLength(file.length() - lost);
+            }
+            DownloaderTests.NumberedSite site = site();
+            Page actual = resume(checkpoint, interval, site);
+            WebCrawlerTest.compare(expected, actual, new HashMap<>(), new HashMap<>(), site());
+            if (lost == 0) {
+                DownloaderTests.NumberedSite all = site();
+                new SimpleWebCrawler(all).crawl(ROOT, DEPTH);
+                Asserts.assertEquals("Downloads", all.getDownloads() - 25, site.getDownloads());
+            }
+            Asserts.assertTrue("Checkpoint is removed", !Files.exists(checkpoint));
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that a record torn in the middle is discarded together with the rest of the log.
+     */
+    private static void testTruncated() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing truncated log");
+        Page expected = new SimpleWebCrawler(site()).crawl(ROOT, DEPTH);
+        Path checkpoint = Files.createTempFile("checkpoint", ".log");
+        try {
+            kill(checkpoint, 1, 25);
+            long size = Files.size(checkpoint);
+            try (RandomAccessFile file = new RandomAccessFile(checkpoint.toFile(), "rw")) {
+                file.setLength(size / 2);
+            }
+            try (CrawlLog log = new CrawlLog(checkpoint, ROOT, DEPTH, 1)) {
+                Asserts.assertTrue("Valid prefix is replayed", log.replaying());
+            }
+            Asserts.assertTrue("Torn record is dropped: " + Files.size(checkpoint), Files.size(checkpoint) <= size / 2);
+            WebCrawlerTest.compare(expected, resume(checkpoint, 1, site()), new HashMap<>(), new HashMap<>(), site());
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that the log ends at the first record of an unknown type or with invalid contents.
+     */
+    private static void testMalformed() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing malformed log");
+        Path file = Files.createTempFile("checkpoint", ".log");
+        try {
+            Document document = Document.restore("Title", Collections.emptyList(), Collections.singletonList(DownloaderTests.page(1)));
+            try (CrawlLog log = new CrawlLog(file, ROOT, DEPTH, 1)) {
+                log.page(document, 100);
+            }
+            long first = Files.size(file);
+            try (CrawlLog log = new CrawlLog(file, ROOT, DEPTH, 1)) {
+                log.replay();
+                log.page(document, 100);
+                log.page(document, 100);
+            }
+            long second = first + (Files.size(file) - first) / 2;
+
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(first + 4);
+                raf.writeByte('X');
+            }
+            try (CrawlLog log = new CrawlLog(file, ROOT, DEPTH, 1)) {
+                log.replay();
+                Asserts.assertTrue("Unknown record is replayed", !log.replaying());
+            }
+            Asserts.assertEquals("Log after unknown record", first, Files.size(file));
+
+            try (CrawlLog log = new CrawlLog(file, ROOT, DEPTH, 1)) {
+                log.replay();
+                log.page(document, 100);
+                log.page(document, 100);
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.seek(second + 4 + 1 + 8);
+                raf.writeInt(-1);
+            }
+            try (CrawlLog log = new CrawlLog(file, ROOT, DEPTH, 1)) {
+                log.replay();
+                log.replay();
+                Asserts.assertTrue("Invalid record is replayed", !log.replaying());
+            }
+            Asserts.assertEquals("Log after invalid record", second, Files.size(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        COUNTER.passed();
+    }
+
+    private static void testOtherCrawl() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing log of another crawl");
+        Path checkpoint = Files.createTempFile("checkpoint", ".log");
+        try {
+            kill(checkpoint, 1, 25);
+            try (CrawlLog log = new CrawlLog(checkpoint, ROOT, DEPTH - 1, 1)) {
+                Asserts.assertTrue("Log of another depth is replayed", !log.replaying());
+            }
+            Files.delete(checkpoint);
+            kill(checkpoint, 1, 25);
+            try (CrawlLog log = new CrawlLog(checkpoint, DownloaderTests.page(1), DEPTH, 1)) {
+                Asserts.assertTrue("Log of another URL is replayed", !log.replaying());
+            }
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Crawls with a checkpoint until the crawler fails on download of a page after {@code pages} downloads.
+     */
+    private static void kill(Path checkpoint, int interval, int pages) throws IOException {
+        Downloader site = site();
+        AtomicInteger downloads = new AtomicInteger();
+        SimpleWebCrawler crawler = new SimpleWebCrawler(url -> {
+            if (downloads.incrementAndGet() > pages) {
+                throw new IllegalStateException("Crawler killed");
+            }
+            return site.download(url);
+        });
+        crawler.setCheckpoint(checkpoint, interval);
+        try {
+            crawler.crawl(ROOT, DEPTH);
+            throw new AssertionError("Crawl was not killed");
+        } catch (IllegalStateException e) {
+            System.err.println("Expected error: " + e.getMessage());
+        }
+    }
+
+    private static Page resume(Path checkpoint, int interval, Downloader site) throws IOException {
+        SimpleWebCrawler crawler = new SimpleWebCrawler(site);
+        crawler.setCheckpoint(checkpoint, interval);
+        return crawler.crawl(ROOT, DEPTH);
+    }
+
+    /**
+     * Returns a site of {@link #PAGES} pages, page {@code i} linking to pages {@code 2i + 1}, {@code 2i + 2} and {@code i / 2}.
+     * Every seventh page fails to download.
+     */
+    private static DownloaderTests.NumberedSite site() {
+        return new DownloaderTests.NumberedSite(2).pages(PAGES).upLinks().failures(7);
+    }
+}
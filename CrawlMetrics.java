@@ -0,0 +1,192 @@
+package crawler;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Counters and latency histograms of the crawl stages, per-host downloads, download retries and the download cache.
+ * <p>
+ * Crawlers and downloaders record to the process-wide {@link #global()} metrics unless given their own,
+ * which may be read at any time while crawls are running, directly or through JMX after {@link #register()}.
+ * Latencies are kept for the first {@value #MAX_HOSTS} hosts; downloads from the rest are
+ * aggregated under {@value #OTHER_HOSTS}.
+ */
+public class CrawlMetrics implements CrawlMetricsMXBean {
+    private static final CrawlMetrics GLOBAL = new CrawlMetrics();
+    private static final double MILLI = 1e6;
+    private static final int MAX_HOSTS = 1024;
+    private static final String OTHER_HOSTS = "(other)";
+
+    /**
+     * Stages of page and image processing.
+     */
+    public enum Stage {
+        /** Downloading pages and images, including reading their bodies. */
+        DOWNLOAD,
+        /** Decoding and tokenizing pages. */
+        PARSE,
+        /** Resolving links of a page. */
+        RESOLVE,
+        /** Downloading and writing an image. */
+        IMAGE,
+        /** Building the link graph. */
+        BUILD
+    }
+
+    private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+    private final ConcurrentMap<String, LatencyHistogram> hosts = new ConcurrentHashMap<>();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder cacheErrors = new LongAdder();
+    private final LongAdder downloadRetries = new LongAdder();
+    private final LongAdder downloadHedges = new LongAdder();
+
+    public CrawlMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public static CrawlMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Registers the metrics in the platform MBean server as {@code crawler:type=CrawlMetrics}.
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("crawler:type=CrawlMetrics"));
+    }
+
+    public LatencyHistogram stage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Returns download latencies of the host, or of all other hosts once {@value #MAX_HOSTS} hosts are kept.
+     */
+    public LatencyHistogram host(String host) {
+        LatencyHistogram histogram = hosts.get(host);
+        if (histogram != null) {
+            return histogram;
+        }
+        return hosts.computeIfAbsent(hosts.size() < MAX_HOSTS ? host : OTHER_HOSTS, h -> new LatencyHistogram());
+    }
+
+    void record(Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    void cacheHit() {
+        cacheHits.increment();
+    }
+
+    void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    void cacheError() {
+        cacheErrors.increment();
+    }
+
+    void downloadRetry() {
+        downloadRetries.increment();
+    }
+
+    void downloadHedge() {
+        downloadHedges.increment();
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        return stages(LatencyHistogram::count);
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis() {
+        return stageMillis(LatencyHistogram::meanNanos);
+    }
+
+    @Override
+    public Map<String, Double> getStageP99Millis() {
+        return stageMillis(histogram -> histogram.quantileNanos(0.99));
+    }
+
+    @Override
+    public Map<String, Long> getHostDownloads() {
+        Map<String, Long> result = new TreeMap<>();
+        hosts.forEach((host, histogram) -> result.put(host, histogram.count()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getHostMeanMillis() {
+        Map<String, Double> result = new TreeMap<>();
+        hosts.forEach((host, histogram) -> result.put(host, histogram.meanNanos() / MILLI));
+        return result;
+    }
+
+    private Map<String, Long> stages(ToLongFunction<LatencyHistogram> value) {
+        Map<String, Long> result = new TreeMap<>();
+        stages.forEach((stage, histogram) -> result.put(stage.name(), value.applyAsLong(histogram)));
+        return result;
+    }
+
+    private Map<String, Double> stageMillis(ToDoubleFunction<LatencyHistogram> nanos) {
+        Map<String, Double> result = new TreeMap<>();
+        stages.forEach((stage, histogram) -> result.put(stage.name(), nanos.applyAsDouble(histogram) / MILLI));
+        return result;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getCacheErrors() {
+        return cacheErrors.sum();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = getCacheHits();
+        long total = hits + getCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public long getDownloadRetries() {
+        return downloadRetries.sum();
+    }
+
+    @Override
+    public long getDownloadHedges() {
+        return downloadHedges.sum();
+    }
+
+    @Override
+    public void reset() {
+        stages.values().forEach(LatencyHistogram::reset);
+        hosts.clear();
+        cacheHits.reset();
+        cacheMisses.reset();
+        cacheErrors.reset();
+        downloadRetries.reset();
+        downloadHedges.reset();
+    }
+}
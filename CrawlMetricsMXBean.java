@@ -0,0 +1,32 @@
+package crawler;
+
+import java.util.Map;
+
+/**
+ * Management view of {@link CrawlMetrics}. Durations are in milliseconds.
+ */
+public interface CrawlMetricsMXBean {
+    Map<String, Long> getStageCounts();
+
+    Map<String, Double> getStageMeanMillis();
+
+    Map<String, Double> getStageP99Millis();
+
+    Map<String, Long> getHostDownloads();
+
+    Map<String, Double> getHostMeanMillis();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheErrors();
+
+    double getCacheHitRate();
+
+    long getDownloadRetries();
+
+    long getDownloadHedges();
+
+    void reset();
+}
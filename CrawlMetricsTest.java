@@ -0,0 +1,80 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Tests {@link CrawlMetrics} given to crawlers and the bound on per-host latencies.
+ */
+public class CrawlMetricsTest {
+    private static final TestCounter COUNTER = new TestCounter();
+
+    public static void main(String[] args) throws IOException {
+        testSimple();
+        testParallel();
+        testHosts();
+        COUNTER.printStatus(CrawlMetricsTest.class);
+    }
+
+    private static void testSimple() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing metrics of SimpleWebCrawler");
+        SyntheticDownloader downloader = site();
+        CrawlMetrics metrics = new CrawlMetrics();
+        Map<String, Long> global = CrawlMetrics.global().getStageCounts();
+        new SimpleWebCrawler(downloader, Long.MAX_VALUE, metrics).crawl(downloader.pageUrl(0), 3);
+        check(metrics, downloader, global);
+        COUNTER.passed();
+    }
+
+    private static void testParallel() {
+        COUNTER.nextTest();
+        System.err.println("=== Testing metrics of ParallelWebCrawler");
+        SyntheticDownloader downloader = site();
+        CrawlMetrics metrics = new CrawlMetrics();
+        Map<String, Long> global = CrawlMetrics.global().getStageCounts();
+        try (ParallelWebCrawler crawler = new ParallelWebCrawler(downloader, 4, 2, 2, Long.MAX_VALUE, metrics)) {
+            crawler.crawl(downloader.pageUrl(0), 3);
+        }
+        check(metrics, downloader, global);
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that every page was counted in the given metrics and none in the global ones.
+     */
+    private static void check(CrawlMetrics metrics, SyntheticDownloader downloader, Map<String, Long> global) {
+        Map<String, Long> stages = metrics.getStageCounts();
+        Asserts.assertEquals("Downloads", downloader.getPages(), stages.get("DOWNLOAD"));
+        Asserts.assertEquals("Parsed pages", downloader.getPages(), stages.get("PARSE"));
+        Asserts.assertEquals("Graph builds", 1L, stages.get("BUILD"));
+        long hosts = metrics.getHostDownloads().values().stream().mapToLong(Long::longValue).sum();
+        Asserts.assertEquals("Host downloads", downloader.getPages(), hosts);
+        Asserts.assertEquals("Global metrics", global, CrawlMetrics.global().getStageCounts());
+    }
+
+    private static void testHosts() {
+        COUNTER.nextTest();
+        System.err.println("=== Testing host bound");
+        CrawlMetrics metrics = new CrawlMetrics();
+        for (int i = 0; i < 3000; i++) {
+            metrics.host("h" + i + ".example.com").record(1000);
+        }
+        metrics.host("h0.example.com").record(1000);
+        Map<String, Long> hosts = metrics.getHostDownloads();
+        Asserts.assertEquals("Hosts", 1025, hosts.size());
+        Asserts.assertEquals("Kept host", 2L, hosts.get("h0.example.com"));
+        Asserts.assertEquals("Other hosts", 3000L - 1024, hosts.get("(other)"));
+        Asserts.assertEquals("Dropped host", null, hosts.get("h2000.example.com"));
+        COUNTER.passed();
+    }
+
+    private static SyntheticDownloader site() {
+        SyntheticDownloader downloader = new SyntheticDownloader(1, 1000, SyntheticDownloader.Shape.POWER_LAW);
+        downloader.setImages(0);
+        return downloader;
+    }
+}
@@ -0,0 +1,32 @@
+package crawler;
+
+/**
+ * Outcome of a crawl limited by a {@link CrawlBudget}.
+ */
+public class CrawlResult {
+    private final Page root;
+    private final CrawlBudget.Limit limit;
+
+    CrawlResult(Page root, CrawlBudget.Limit limit) {
+        this.root = root;
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the page the crawl started from.
+     */
+    public Page getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the limit that stopped the crawl, {@code null} if the crawl was completed.
+     */
+    public CrawlBudget.Limit getLimit() {
+        return limit;
+    }
+
+    public boolean isComplete() {
+        return limit == null;
+    }
+}
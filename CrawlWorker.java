@@ -0,0 +1,467 @@
+package crawler;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Worker process of a {@link DistributedWebCrawler}.
+ * <p>
+ * A worker owns the hosts the {@link HostRing} assigns to it: it visits their pages and downloads their images.
+ * Links and images found on its pages are forwarded to their owners in batches, over connections
+ * kept for the whole crawl; a batch is acknowledged once the owner has queued it.
+ * Every URL is forwarded at most once, so owners see each link only when it is first found.
+ * The coordinator drives the crawl level by level: it collects the pages visited on each level
+ * and, when the crawl is over, the downloaded images.
+ * <p>
+ * Usage: {@code java crawler.CrawlWorker <cache.zip> [<port> [<threads> [<image directory>]]]}.
+ * The worker prints the port it listens on and runs until its standard input is closed.
+ */
+public class CrawlWorker implements AutoCloseable {
+    static final byte START = 'S';
+    static final byte LEVEL = 'L';
+    static final byte FINISH = 'F';
+    static final byte DOWNLOADS = 'D';
+    static final byte BATCH = 'B';
+    static final byte OK = 'K';
+    private static final int BATCH_SIZE = 512;
+
+    private final Downloader downloader;
+    private final CrawlMetrics metrics;
+    private final Path imageDirectory;
+    private final ServerSocket server;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final ExecutorService pages;
+    private final ExecutorService images;
+    private final ThreadLocal<PageReader> readers = ThreadLocal.withInitial(() -> new PageReader(Long.MAX_VALUE));
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<Integer, Queue<String>> inbox = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Future<String>> imageFiles = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> downloads = new ConcurrentHashMap<>();
+
+    private int index;
+    private HostRing ring;
+    private Peer[] peers = new Peer[0];
+    private UrlRegistry urls;
+    private BitSet visited;
+    private BitSet forwardedLinks;
+    private BitSet forwardedImages;
+
+    /**
+     * Creates a worker listening on the given port, {@code 0} for any free port.
+     *
+     * @param threads number of threads downloading pages and, separately, images
+     */
+    public CrawlWorker(Downloader downloader, int port, int threads, Path imageDirectory) throws IOException {
+        this(downloader, port, threads, imageDirectory, CrawlMetrics.global());
+    }
+
+    /**
+     * Creates a worker recording its downloads and stages in the given metrics.
+     */
+    public CrawlWorker(Downloader downloader, int port, int threads, Path imageDirectory, CrawlMetrics metrics) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads should be positive");
+        }
+        CachingDownloader.createDirectory(imageDirectory);
+        this.downloader = new MeteredDownloader(downloader, metrics);
+        this.metrics = metrics;
+        this.imageDirectory = imageDirectory;
+        this.pages = Executors.newFixedThreadPool(threads);
+        this.images = Executors.newFixedThreadPool(threads);
+        this.server = new ServerSocket(port);
+        connections.submit(this::accept);
+    }
+
+    /**
+     * Returns the port the worker listens on.
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    private void accept() {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                connections.submit(() -> serve(socket));
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    Logger.log("Cannot accept connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            int command;
+            while ((command = in.read()) >= 0) {
+                if (command == START) {
+                    start(in);
+                    out.writeByte(OK);
+                } else if (command == LEVEL) {
+                    level(in.readInt(), out);
+                } else if (command == FINISH) {
+                    finish(out);
+                } else if (command == DOWNLOADS) {
+                    downloads(out);
+                } else if (command == BATCH) {
+                    queue(in.readInt(), readStrings(in));
+                    for (String image : readStrings(in)) {
+                        submitImage(image);
+                    }
+                    out.writeByte(OK);
+                } else {
+                    throw new IOException("Unknown command " + command);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            Logger.log("Connection failed: " + e.getMessage());
+        } finally {
+            sockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                Logger.log("Cannot close connection: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Starts a new crawl, forgetting the previous one.
+     */
+    private synchronized void start(DataInputStream in) throws IOException {
+        closePeers();
+        index = in.readInt();
+        peers = new Peer[in.readInt()];
+        for (int i = 0; i < peers.length; i++) {
+            InetSocketAddress address = new InetSocketAddress(readString(in), in.readInt());
+            peers[i] = i == index ? null : new Peer(address);
+        }
+        List<String> roots = readStrings(in);
+        int depth = in.readInt();
+
+        ring = new HostRing(peers.length);
+        urls = new UrlRegistry(true);
+        visited = new BitSet();
+        forwardedLinks = new BitSet();
+        forwardedImages = new BitSet();
+        inbox.clear();
+        imageFiles.clear();
+        downloads.clear();
+        for (String root : roots) {
+            if (ring.owner(root) == index) {
+                queue(depth, Collections.singletonList(root));
+            }
+        }
+    }
+
+    /**
+     * Queues pages to visit on the level of the given depth.
+     */
+    private void queue(int depth, Collection<String> urls) {
+        inbox.computeIfAbsent(depth, d -> new ConcurrentLinkedQueue<>()).addAll(urls);
+    }
+
+    /**
+     * Visits the pages queued for the level and forwards links found on them to the next level.
+     * Writes the visited pages, followed by the number of forwarded links.
+     */
+    private synchronized void level(int depth, DataOutputStream out) throws IOException {
+        List<String> level = new ArrayList<>();
+        List<Future<Document>> documents = new ArrayList<>();
+        Queue<String> queued = inbox.remove(depth);
+        for (String url : queued == null ? Collections.<String>emptyList() : queued) {
+            int id = urls.register(url);
+            if (visited.get(id)) {
+                continue;
+            }
+            visited.set(id);
+            if (depth == 0) {
+                level.add(url);
+                documents.add(null);
+                continue;
+            }
+            try {
+                UrlResolver base = new UrlResolver(url);
+                documents.add(pages.submit(() -> parse(url, base)));
+                level.add(url);
+            } catch (MalformedURLException e) {
+                Logger.log(url + " is not a valid URL");
+            }
+        }
+
+        int forwarded = 0;
+        for (int i = 0; i < level.size(); i++) {
+            Document document = documents.get(i) == null ? null : get(documents.get(i));
+            out.writeBoolean(true);
+            writeString(out, level.get(i));
+            if (document == null) {
+                writeString(out, "");
+                writeStrings(out, Collections.emptyList());
+                writeStrings(out, Collections.emptyList());
+                continue;
+            }
+            writeString(out, document.getTitle());
+            writeStrings(out, document.getImages());
+            writeStrings(out, document.getLinks());
+            for (String image : document.getImages()) {
+                forwardImage(image);
+            }
+            for (String link : document.getLinks()) {
+                if (forwardLink(link, depth - 1)) {
+                    forwarded++;
+                }
+            }
+        }
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.flush();
+            }
+        }
+        out.writeBoolean(false);
+        out.writeInt(forwarded);
+    }
+
+    private Document parse(String url, UrlResolver base) {
+        downloads.merge(url, 1, Integer::sum);
+        try (InputStream is = downloader.download(url)) {
+            return Document.parse(base, is, PageReader.contentType(is), readers.get(), metrics);
+        } catch (IOException e) {
+            Logger.log("Page read failed: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws InterruptedIOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for downloads");
+        } catch (ExecutionException e) {
+            Logger.log("Download failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    private boolean forwardLink(String link, int depth) throws IOException {
+        int id = urls.register(link);
+        if (forwardedLinks.get(id)) {
+            return false;
+        }
+        forwardedLinks.set(id);
+        int owner = ring.owner(link);
+        if (owner == index) {
+            queue(depth, Collections.singletonList(link));
+        } else {
+            peers[owner].link(link, depth);
+        }
+        return true;
+    }
+
+    private void forwardImage(String image) throws IOException {
+        int id = urls.register(image);
+        if (forwardedImages.get(id)) {
+            return;
+        }
+        forwardedImages.set(id);
+        int owner = ring.owner(image);
+        if (owner == index) {
+            submitImage(image);
+        } else {
+            peers[owner].image(image);
+        }
+    }
+
+    private void submitImage(String image) {
+        imageFiles.computeIfAbsent(image, url -> images.submit(() -> {
+            downloads.merge(url, 1, Integer::sum);
+            return SimpleWebCrawler.downloadImage(downloader, url, imageDirectory, metrics);
+        }));
+    }
+
+    /**
+     * Waits for the image downloads and writes their files, {@code null} for failed ones.
+     */
+    private synchronized void finish(DataOutputStream out) throws IOException {
+        for (Map.Entry<String, Future<String>> image : imageFiles.entrySet()) {
+            String file = get(image.getValue());
+            out.writeBoolean(true);
+            writeString(out, image.getKey());
+            out.writeBoolean(file != null);
+            if (file != null) {
+                writeString(out, file);
+            }
+        }
+        out.writeBoolean(false);
+        closePeers();
+    }
+
+    /**
+     * Writes the number of downloads of each URL since the start of the crawl.
+     */
+    private synchronized void downloads(DataOutputStream out) throws IOException {
+        for (Map.Entry<String, Integer> download : downloads.entrySet()) {
+            out.writeBoolean(true);
+            writeString(out, download.getKey());
+            out.writeInt(download.getValue());
+        }
+        out.writeBoolean(false);
+    }
+
+    private void closePeers() {
+        for (Peer peer : peers) {
+            if (peer != null) {
+                peer.close();
+            }
+        }
+        peers = new Peer[0];
+    }
+
+    /**
+     * Connection to another worker, buffering links and images forwarded to it.
+     */
+    private static class Peer implements Closeable {
+        private final InetSocketAddress address;
+        private final List<String> links = new ArrayList<>();
+        private final List<String> images = new ArrayList<>();
+        private int depth;
+        private Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+
+        private Peer(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * Buffers a link to visit with the given depth, all links of a batch have the same depth.
+         */
+        private void link(String url, int depth) throws IOException {
+            if (this.depth != depth) {
+                flush();
+                this.depth = depth;
+            }
+            links.add(url);
+            if (links.size() + images.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        private void image(String url) throws IOException {
+            images.add(url);
+            if (links.size() + images.size() >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        /**
+         * Sends the buffered batch and waits until the peer queues it.
+         */
+        private void flush() throws IOException {
+            if (links.isEmpty() && images.isEmpty()) {
+                return;
+            }
+            if (socket == null) {
+                socket = new Socket(address.getAddress(), address.getPort());
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            }
+            out.writeByte(BATCH);
+            out.writeInt(depth);
+            writeStrings(out, links);
+            writeStrings(out, images);
+            out.flush();
+            if (in.read() != OK) {
+                throw new IOException("Batch was not accepted by " + address);
+            }
+            links.clear();
+            images.clear();
+        }
+
+        @Override
+        public void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Logger.log("Cannot close connection to " + address + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    static void writeString(DataOutputStream os, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        os.writeInt(bytes.length);
+        os.write(bytes);
+    }
+
+    static String readString(DataInputStream is) throws IOException {
+        byte[] bytes = new byte[is.readInt()];
+        is.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeStrings(DataOutputStream os, List<String> strings) throws IOException {
+        os.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(os, s);
+        }
+    }
+
+    static List<String> readStrings(DataInputStream is) throws IOException {
+        int size = is.readInt();
+        List<String> strings = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            strings.add(readString(is));
+        }
+        return strings;
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        synchronized (this) {
+            closePeers();
+        }
+        connections.shutdownNow();
+        pages.shutdownNow();
+        images.shutdownNow();
+    }
+
+    public static void main(String[] args) {
+        if (args == null || args.length < 1 || args.length > 4) {
+            System.err.println("Usage: java crawler.CrawlWorker <cache.zip> [<port> [<threads> [<image directory>]]]");
+            return;
+        }
+        try (ZipDownloader downloader = new ZipDownloader(args[0]);
+             CrawlWorker worker = new CrawlWorker(
+                     downloader,
+                     args.length > 1 ? Integer.parseInt(args[1]) : 0,
+                     args.length > 2 ? Integer.parseInt(args[2]) : 4,
+                     Paths.get(args.length > 3 ? args[3] : ""))) {
+            System.out.println(worker.getPort());
+            System.out.flush();
+            while (System.in.read() >= 0) {
+                // runs until the standard input is closed
+            }
+        } catch (IOException e) {
+            System.err.println("Worker failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package crawler;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Crawls a {@link SyntheticDownloader} site and reports throughput, allocation and peak heap usage.
+ * <p>
+ * Allocation is sampled by a background thread, so allocation by threads living shorter
+ * than the sampling interval is not included. Peak heap is the sum of the peak usages of the heap
+ * memory pools, which may peak at different times, so it is an upper bound. Images are written to a temporary directory,
+ * which is removed afterwards. Crawler diagnostic messages are discarded.
+ * <p>
+ * Usage: {@code java crawler.CrawlerLoadDriver <crawler> <shape> <pages> <depth>
+ * [<links> [<images> [<page size> [<latency ms> [<error rate>]]]]]}, where the crawler is {@code simple},
+ * {@code parallel} or the name of a {@link WebCrawler} class with a constructor taking a {@link Downloader}.
+ */
+public class CrawlerLoadDriver {
+    private static final long SAMPLE_MILLIS = 50;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("Usage: java crawler.CrawlerLoadDriver <crawler> <shape> <pages> <depth> "
+                    + "[<links> [<images> [<page size> [<latency ms> [<error rate>]]]]]");
+            return;
+        }
+        SyntheticDownloader downloader = new SyntheticDownloader(SEED, Integer.parseInt(args[2]),
+                SyntheticDownloader.Shape.valueOf(args[1].toUpperCase(Locale.ROOT)));
+        if (args.length > 4) {
+            downloader.setLinks(Integer.parseInt(args[4]));
+        }
+        if (args.length > 5) {
+            downloader.setImages(Integer.parseInt(args[5]));
+        }
+        if (args.length > 6) {
+            downloader.setSizes(Integer.parseInt(args[6]), 4 << 10);
+        }
+        if (args.length > 7) {
+            downloader.setLatency(Long.parseLong(args[7]), TimeUnit.MILLISECONDS);
+        }
+        if (args.length > 8) {
+            downloader.setErrorRates(Double.parseDouble(args[8]), 0);
+        }
+
+        Logger.setListener(message -> {
+        });
+        Path images = Files.createTempDirectory("load");
+        try {
+            WebCrawler crawler = crawler(args[0], downloader, images);
+            try {
+                System.out.println(run(crawler, downloader, Integer.parseInt(args[3])));
+            } finally {
+                if (crawler instanceof AutoCloseable) {
+                    ((AutoCloseable) crawler).close();
+                }
+            }
+        } finally {
+            delete(images);
+        }
+    }
+
+    private static WebCrawler crawler(String name, Downloader downloader, Path images) throws Exception {
+        switch (name) {
+            case "simple": {
+                SimpleWebCrawler crawler = new SimpleWebCrawler(downloader);
+                crawler.setImageDirectory(images);
+                return crawler;
+            }
+            case "parallel": {
+                ParallelWebCrawler crawler = new ParallelWebCrawler(downloader, 16, 4, 4);
+                crawler.setImageDirectory(images);
+                return crawler;
+            }
+            default:
+                return (WebCrawler) Class.forName(name).getConstructor(Downloader.class).newInstance(downloader);
+        }
+    }
+
+    /**
+     * Crawls the site from its first page and returns the report.
+     */
+    public static String run(WebCrawler crawler, SyntheticDownloader downloader, int depth) {
+        long pagesBefore = downloader.getPages();
+        long imagesBefore = downloader.getImages();
+        long bytesBefore = downloader.getBytes();
+        Sampler sampler = new Sampler();
+        Thread thread = new Thread(sampler, "load-sampler");
+        thread.setDaemon(true);
+        System.gc();
+        List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+        sampler.sample();
+        thread.start();
+        long start = System.nanoTime();
+        crawler.crawl(downloader.pageUrl(0), depth);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sampler.sample();
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        long pages = downloader.getPages() - pagesBefore;
+        long images = downloader.getImages() - imagesBefore;
+        long bytes = downloader.getBytes() - bytesBefore;
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "%s: %d pages, %d images in %.2f s, %.1f pages/s, %.1f MiB/s",
+                crawler.getClass().getSimpleName(), pages, images, seconds, pages / seconds, bytes / seconds / (1 << 20)));
+        if (sampler.allocated >= 0) {
+            report.append(String.format(Locale.ROOT, ", %.1f MiB allocated, %.0f KiB/page",
+                    sampler.allocated / (double) (1 << 20), pages == 0 ? 0 : sampler.allocated / 1024.0 / pages));
+        }
+        report.append(String.format(Locale.ROOT, ", %.1f MiB peak heap", peakHeap / (double) (1 << 20)));
+        return report.toString();
+    }
+
+    /**
+     * Samples the bytes allocated by every thread.
+     */
+    private static class Sampler implements Runnable {
+        private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        private final Map<Long, Long> initial = new HashMap<>();
+        private final Map<Long, Long> last = new HashMap<>();
+        private boolean first = true;
+        private volatile long allocated;
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                sample();
+                try {
+                    Thread.sleep(SAMPLE_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized void sample() {
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                allocated = -1;
+                return;
+            }
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0) {
+                    if (first) {
+                        initial.put(ids[i], bytes[i]);
+                    }
+                    last.put(ids[i], bytes[i]);
+                }
+            }
+            first = false;
+            long total = 0;
+            for (Map.Entry<Long, Long> entry : last.entrySet()) {
+                total += entry.getValue() - initial.getOrDefault(entry.getKey(), 0L);
+            }
+            allocated = total;
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+}
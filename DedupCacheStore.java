@@ -0,0 +1,142 @@
+package crawler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores each distinct page once, compressed, in an inner store.
+ * <p>
+ * A successful record is stored under the SHA-256 hash of its contents, compressed with {@link Deflater};
+ * the record of the URL holds just the hash. Pages with equal bodies, such as mirrors, query-string
+ * variants and images shared under different paths, share the stored copy. Records are hashed
+ * in a temporary file first, so a page that is already stored is never compressed again;
+ * temporary files are created in the given directory, usually the one of the inner store,
+ * rather than the system temporary directory that may be on another, smaller file system.
+ * Error records are small and stored as is. Stored pages are never removed.
+ */
+public class DedupCacheStore implements CacheStore {
+    private static final byte POINTER = 'D';
+    private static final String PAGE_PREFIX = "sha256:";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final CacheStore store;
+    private final Path directory;
+
+    /**
+     * Creates a store keeping pages in the inner store and temporary files in the directory.
+     * The directory is created if it does not exist.
+     */
+    public DedupCacheStore(final CacheStore store, final Path directory) throws IOException {
+        CachingDownloader.createDirectory(directory);
+        this.store = store;
+        this.directory = directory;
+    }
+
+    @Override
+    public InputStream read(final String url) throws IOException {
+        final InputStream record = store.read(url);
+        if (record == null) {
+            return null;
+        }
+        final PushbackInputStream is = new PushbackInputStream(record);
+        final int marker = is.read();
+        if (marker != POINTER) {
+            if (marker >= 0) {
+                is.unread(marker);
+            }
+            return is;
+        }
+        final String key;
+        try (final DataInputStream pointer = new DataInputStream(is)) {
+            key = pointer.readUTF();
+        }
+        final InputStream page = store.read(key);
+        if (page == null) {
+            throw new IOException("Page " + key + " of " + url + " is missing");
+        }
+        return new InflaterInputStream(page, new Inflater()) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    @Override
+    public void write(final String url, final InputStream record) throws IOException {
+        final PushbackInputStream is = new PushbackInputStream(record);
+        final int marker = is.read();
+        if (marker >= 0) {
+            is.unread(marker);
+        }
+        if (marker != '+') {
+            store.write(url, is);
+            return;
+        }
+
+        final Path tmp = Files.createTempFile(directory, "page", ".tmp");
+        try {
+            final MessageDigest digest = sha256();
+            Files.copy(new DigestInputStream(is, digest), tmp, StandardCopyOption.REPLACE_EXISTING);
+            final String key = PAGE_PREFIX + hex(digest.digest());
+
+            final InputStream existing = store.read(key);
+            if (existing == null) {
+                final Deflater deflater = new Deflater();
+                try (final InputStream page = new DeflaterInputStream(Files.newInputStream(tmp), deflater)) {
+                    store.write(key, page);
+                } finally {
+                    deflater.end();
+                }
+            } else {
+                existing.close();
+            }
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (final DataOutputStream pointer = new DataOutputStream(bytes)) {
+                pointer.writeByte(POINTER);
+                pointer.writeUTF(key);
+            }
+            store.write(url, new ByteArrayInputStream(bytes.toByteArray()));
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public long identity(final String url) throws IOException {
+        return store.identity(url);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String hex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
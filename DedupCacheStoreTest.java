@@ -0,0 +1,234 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests {@link DedupCacheStore} over an in-memory store.
+ */
+public class DedupCacheStoreTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final String BODY = repeat("<p>Hello, world!</p>", 1000);
+
+    public static void main(String[] args) throws IOException {
+        testSharing();
+        testDistinct();
+        testErrors();
+        testReplace();
+        testTemporaryFiles();
+        COUNTER.printStatus(DedupCacheStoreTest.class);
+    }
+
+    /**
+     * Checks that equal pages of different URLs share one compressed copy.
+     */
+    private static void testSharing() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing sharing");
+        MemoryStore inner = new MemoryStore();
+        Path directory = Files.createTempDirectory("dedup");
+        try (DedupCacheStore store = new DedupCacheStore(inner, directory)) {
+            for (int i = 0; i < 10; i++) {
+                write(store, url(i), "+" + BODY);
+            }
+            for (int i = 0; i < 10; i++) {
+                Asserts.assertEquals("Record " + i, "+" + BODY, read(store, url(i)));
+            }
+            List<String> pages = inner.pages();
+            Asserts.assertEquals("Stored pages " + pages, 1, pages.size());
+            Asserts.assertEquals("Page writes", 1, inner.pageWrites);
+            Asserts.assertTrue("Page is not compressed", inner.records.get(pages.get(0)).length < BODY.length() / 10);
+            Asserts.assertEquals("Missing record", null, store.read(url(10)));
+        } finally {
+            Files.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    private static void testDistinct() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing distinct pages");
+        MemoryStore inner = new MemoryStore();
+        Path directory = Files.createTempDirectory("dedup");
+        try (DedupCacheStore store = new DedupCacheStore(inner, directory)) {
+            write(store, url(0), "+" + BODY);
+            write(store, url(1), "+" + BODY + " ");
+            write(store, url(2), "+");
+            Asserts.assertEquals("Record 0", "+" + BODY, read(store, url(0)));
+            Asserts.assertEquals("Record 1", "+" + BODY + " ", read(store, url(1)));
+            Asserts.assertEquals("Empty page", "+", read(store, url(2)));
+            Asserts.assertEquals("Stored pages", 3, inner.pages().size());
+        } finally {
+            Files.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that error records and empty records are stored as is.
+     */
+    private static void testErrors() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing errors");
+        MemoryStore inner = new MemoryStore();
+        Path directory = Files.createTempDirectory("dedup");
+        try (DedupCacheStore store = new DedupCacheStore(inner, directory)) {
+            write(store, url(0), "-Not found");
+            write(store, url(1), "-Not found");
+            write(store, url(2), "");
+            Asserts.assertEquals("Error", "-Not found", read(store, url(0)));
+            Asserts.assertEquals("Error", "-Not found", read(store, url(1)));
+            Asserts.assertEquals("Empty record", "", read(store, url(2)));
+            Asserts.assertEquals("Raw error", "-Not found", new String(inner.records.get(url(0)), StandardCharsets.UTF_8));
+            Asserts.assertTrue("Stored pages", inner.pages().isEmpty());
+        } finally {
+            Files.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that replaced records read the new page and change identity, while the old page stays shared.
+     */
+    private static void testReplace() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing replace");
+        MemoryStore inner = new MemoryStore();
+        Path directory = Files.createTempDirectory("dedup");
+        try (DedupCacheStore store = new DedupCacheStore(inner, directory)) {
+            write(store, url(0), "+" + BODY);
+            write(store, url(1), "+" + BODY);
+            long identity = store.identity(url(0));
+            write(store, url(0), "+Changed");
+            Asserts.assertEquals("Replaced record", "+Changed", read(store, url(0)));
+            Asserts.assertEquals("Shared record", "+" + BODY, read(store, url(1)));
+            Asserts.assertTrue("Identity is not changed", identity != store.identity(url(0)));
+            write(store, url(0), "+" + BODY);
+            Asserts.assertEquals("Restored record", "+" + BODY, read(store, url(0)));
+            Asserts.assertEquals("Page writes", 2, inner.pageWrites);
+        } finally {
+            Files.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that pages are hashed in a temporary file of the given directory, which is removed afterwards.
+     */
+    private static void testTemporaryFiles() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing temporary files");
+        Path directory = Files.createTempDirectory("dedup").resolve("store");
+        List<String> seen = new ArrayList<>();
+        MemoryStore inner = new MemoryStore() {
+            @Override
+            public void write(String url, InputStream record) throws IOException {
+                try (Stream<Path> files = Files.list(directory)) {
+                    seen.addAll(files.map(file -> file.getFileName().toString()).collect(Collectors.toList()));
+                }
+                super.write(url, record);
+            }
+        };
+        try (DedupCacheStore store = new DedupCacheStore(inner, directory)) {
+            write(store, url(0), "+" + BODY);
+            Asserts.assertTrue("Temporary files " + seen, !seen.isEmpty() && seen.stream().allMatch(name -> name.endsWith(".tmp")));
+            try (Stream<Path> files = Files.list(directory)) {
+                Asserts.assertEquals("Files left", 0L, files.count());
+            }
+        } finally {
+            Files.delete(directory);
+            Files.delete(directory.getParent());
+        }
+        COUNTER.passed();
+    }
+
+    private static String url(int page) {
+        return "http://www.example.com/p" + page + ".html";
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static void write(CacheStore store, String url, String record) throws IOException {
+        store.write(url, new ByteArrayInputStream(record.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String read(CacheStore store, String url) throws IOException {
+        InputStream record = store.read(url);
+        if (record == null) {
+            return null;
+        }
+        try (InputStream is = record) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Keeps records in memory, counting writes of pages stored by hash.
+     */
+    private static class MemoryStore implements CacheStore {
+        final Map<String, byte[]> records = new ConcurrentHashMap<>();
+        final Map<String, Long> identities = new ConcurrentHashMap<>();
+        int pageWrites;
+        long writes;
+
+        List<String> pages() {
+            return records.keySet().stream().filter(key -> key.startsWith("sha256:")).collect(Collectors.toList());
+        }
+
+        @Override
+        public InputStream read(String url) {
+            byte[] record = records.get(url);
+            return record == null ? null : new ByteArrayInputStream(record);
+        }
+
+        @Override
+        public void write(String url, InputStream record) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = record.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            if (url.startsWith("sha256:")) {
+                pageWrites++;
+            }
+            records.put(url, bytes.toByteArray());
+            identities.put(url, ++writes);
+        }
+
+        @Override
+        public long identity(String url) {
+            return identities.getOrDefault(url, 0L);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package crawler;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+
+/**
+ * Coordinates a crawl over several {@link CrawlWorker} processes, each owning a partition of hosts.
+ * <p>
+ * The crawl is level-synchronous: a level starts on all workers at once and ends when every worker
+ * has visited its pages of the level and its links have been queued by their owners.
+ * The crawl terminates when a level forwards no links. The pages each worker reports for a level
+ * are put in the order a sequential crawl would visit them, by walking the links of the previous level,
+ * so the resulting {@link Page} graph is the same as produced by {@link SimpleWebCrawler}.
+ * Page downloads are done by the workers, the coordinator only keeps the graph.
+ * A worker takes part in one crawl at a time.
+ */
+public class DistributedWebCrawler implements WebCrawler, AutoCloseable {
+    private final List<InetSocketAddress> addresses;
+    private final Socket[] sockets;
+    private final DataInputStream[] ins;
+    private final DataOutputStream[] outs;
+    private final CrawlMetrics metrics;
+
+    /**
+     * Connects to the workers, all crawls use them in the given order.
+     */
+    public DistributedWebCrawler(List<InetSocketAddress> workers) throws IOException {
+        this(workers, CrawlMetrics.global());
+    }
+
+    /**
+     * Connects to the workers, recording the graph build in the given metrics.
+     */
+    public DistributedWebCrawler(List<InetSocketAddress> workers, CrawlMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.addresses = new ArrayList<>(workers);
+        this.sockets = new Socket[workers.size()];
+        this.ins = new DataInputStream[workers.size()];
+        this.outs = new DataOutputStream[workers.size()];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = new Socket(addresses.get(i).getAddress(), addresses.get(i).getPort());
+                sockets[i].setTcpNoDelay(true);
+                ins[i] = new DataInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+                outs[i] = new DataOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Page visited by a worker.
+     */
+    private static class Visit {
+        private final String url;
+        private final String title;
+        private final List<String> images;
+        private final List<String> links;
+
+        private Visit(String url, String title, List<String> images, List<String> links) {
+            this.url = url;
+            this.title = title;
+            this.images = images;
+            this.links = links;
+        }
+    }
+
+    @Override
+    public Page crawl(String url, int depth) {
+        return root(crawl(Collections.singletonList(url), depth), url);
+    }
+
+    /**
+     * Crawls from all seeds at once, so every page and image is processed once.
+     * A page is crawled to the greatest depth left on any path from the seeds.
+     */
+    @Override
+    public Map<String, Page> crawlAll(Collection<String> seeds, int depth) {
+        LinkGraph graph = crawl(seeds, depth);
+        Map<String, Page> roots = new LinkedHashMap<>();
+        for (String seed : seeds) {
+            roots.put(seed, root(graph, seed));
+        }
+        return roots;
+    }
+
+    private LinkGraph crawl(Collection<String> seeds, int depth) {
+        List<String> roots = new ArrayList<>(seeds.size());
+        for (String seed : seeds) {
+            roots.add(UrlResolver.canonical(seed));
+        }
+        UrlRegistry registry = new UrlRegistry(true);
+        LinkGraph graph = new LinkGraph(registry);
+        IntList images = new IntList();
+
+        try {
+            for (int i = 0; i < outs.length; i++) {
+                outs[i].writeByte(CrawlWorker.START);
+                outs[i].writeInt(i);
+                outs[i].writeInt(addresses.size());
+                for (InetSocketAddress address : addresses) {
+                    CrawlWorker.writeString(outs[i], address.getHostString());
+                    outs[i].writeInt(address.getPort());
+                }
+                CrawlWorker.writeStrings(outs[i], roots);
+                outs[i].writeInt(depth);
+                outs[i].flush();
+            }
+            for (DataInputStream in : ins) {
+                expectOk(in);
+            }
+
+            List<Visit> previous = Collections.singletonList(new Visit(null, null, Collections.emptyList(), roots));
+            for (int level = depth; level >= 0; level--) {
+                for (DataOutputStream out : outs) {
+                    out.writeByte(CrawlWorker.LEVEL);
+                    out.writeInt(level);
+                    out.flush();
+                }
+                Map<String, Visit> visits = new LinkedHashMap<>();
+                int forwarded = 0;
+                for (DataInputStream in : ins) {
+                    while (in.readBoolean()) {
+                        Visit visit = new Visit(CrawlWorker.readString(in), CrawlWorker.readString(in),
+                                CrawlWorker.readStrings(in), CrawlWorker.readStrings(in));
+                        visits.put(visit.url, visit);
+                    }
+                    forwarded += in.readInt();
+                }
+
+                List<Visit> ordered = order(previous, visits);
+                for (Visit visit : ordered) {
+                    add(graph, registry, images, visit);
+                }
+                if (forwarded == 0) {
+                    break;
+                }
+                previous = ordered;
+            }
+
+            Map<String, String> files = new HashMap<>();
+            for (DataOutputStream out : outs) {
+                out.writeByte(CrawlWorker.FINISH);
+                out.flush();
+            }
+            for (DataInputStream in : ins) {
+                while (in.readBoolean()) {
+                    String image = CrawlWorker.readString(in);
+                    files.put(image, in.readBoolean() ? CrawlWorker.readString(in) : null);
+                }
+            }
+            for (int i = 0; i < images.size(); i++) {
+                String file = files.get(registry.url(images.get(i)));
+                if (file == null) {
+                    graph.removeImage(images.get(i));
+                } else {
+                    graph.putImage(images.get(i), file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Distributed crawl of " + String.join(", ", seeds) + " failed", e);
+        }
+
+        long start = System.nanoTime();
+        graph.build();
+        metrics.record(CrawlMetrics.Stage.BUILD, System.nanoTime() - start);
+        return graph;
+    }
+
+    /**
+     * Returns the number of downloads of each page and image URL by the workers during the last crawl.
+     */
+    public Map<String, Integer> getDownloads() {
+        Map<String, Integer> downloads = new HashMap<>();
+        try {
+            for (DataOutputStream out : outs) {
+                out.writeByte(CrawlWorker.DOWNLOADS);
+                out.flush();
+            }
+            for (DataInputStream in : ins) {
+                while (in.readBoolean()) {
+                    downloads.merge(CrawlWorker.readString(in), in.readInt(), Integer::sum);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot collect downloads from workers", e);
+        }
+        return downloads;
+    }
+
+    private static Page root(LinkGraph graph, String url) {
+        return graph.pageById(graph.urls().register(UrlResolver.canonical(url)));
+    }
+
+    /**
+     * Orders pages of a level as they were queued by a sequential crawl: by the first link to them
+     * from the pages of the previous level. Pages of the first level are linked from a page without URL.
+     */
+    private static List<Visit> order(List<Visit> previous, Map<String, Visit> visits) {
+        List<Visit> ordered = new ArrayList<>(visits.size());
+        for (Visit page : previous) {
+            for (String link : page.links) {
+                Visit visit = visits.remove(link);
+                if (visit != null) {
+                    ordered.add(visit);
+                }
+            }
+        }
+        ordered.addAll(visits.values());
+        return ordered;
+    }
+
+    private static void add(LinkGraph graph, UrlRegistry registry, IntList images, Visit visit) {
+        graph.addPage(registry.register(visit.url), visit.title);
+        for (String image : visit.images) {
+            int imageId = registry.register(image);
+            if (!graph.containsImage(imageId)) {
+                graph.putImage(imageId, null);
+                images.add(imageId);
+            }
+            graph.addImage(imageId);
+        }
+        for (String link : visit.links) {
+            graph.addLink(registry.register(link));
+        }
+    }
+
+    private static void expectOk(DataInputStream in) throws IOException {
+        if (in.read() != CrawlWorker.OK) {
+            throw new IOException("Worker did not accept the crawl");
+        }
+    }
+
+    /**
+     * Closes connections to the workers; the workers keep running.
+     */
+    @Override
+    public void close() {
+        for (Socket socket : sockets) {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Logger.log("Cannot close connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
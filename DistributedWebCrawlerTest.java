@@ -0,0 +1,65 @@
+package crawler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs {@link WebCrawlerTest} against {@link DistributedWebCrawler} with workers in separate JVMs.
+ */
+public class DistributedWebCrawlerTest extends WebCrawlerTest {
+    private static final int WORKERS = 3;
+
+    public static void main(String[] args) {
+        List<Process> processes = new ArrayList<>();
+        try {
+            List<InetSocketAddress> workers = new ArrayList<>();
+            for (int i = 0; i < WORKERS; i++) {
+                Process process = new ProcessBuilder(
+                        System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                        "-cp", System.getProperty("java.class.path"),
+                        CrawlWorker.class.getName(), "base_cache.zip"
+                ).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                processes.add(process);
+                workers.add(new InetSocketAddress("localhost", port(process)));
+            }
+            crawlers = downloader -> new DistributedWebCrawler(workers);
+            WebCrawlerTest.main(args);
+        } catch (IOException e) {
+            throw new AssertionError("Cannot start workers", e);
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Reads the port the worker listens on and forwards the rest of its output.
+     */
+    private static int port(Process process) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = reader.readLine();
+        if (line == null) {
+            throw new AssertionError("Worker exited before listening");
+        }
+        Thread output = new Thread(() -> {
+            try {
+                String message;
+                while ((message = reader.readLine()) != null) {
+                    System.out.println(message);
+                }
+            } catch (IOException e) {
+                // worker exited
+            }
+        });
+        output.setDaemon(true);
+        output.start();
+        return Integer.parseInt(line.trim());
+    }
+}
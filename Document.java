@@ -0,0 +1,133 @@
+package crawler;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Crawler-relevant contents of a downloaded page: title, images and links.
+ */
+class Document implements HtmlTokenizer.Handler {
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    private final UrlResolver base;
+    private String title = "";
+    private final List<String> images = new ArrayList<>();
+    private final List<String> links = new ArrayList<>();
+    private long resolveNanos;
+
+    private Document(UrlResolver base) {
+        this.base = base;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Returns canonical URLs of the images, in order of appearance.
+     */
+    public List<String> getImages() {
+        return images;
+    }
+
+    /**
+     * Returns canonical URLs of the links, in order of appearance.
+     */
+    public List<String> getLinks() {
+        return links;
+    }
+
+    /**
+     * Reads the page into the buffer until it ends or {@code limit} bytes are read.
+     *
+     * @return whether the page ended
+     */
+    public static boolean read(InputStream is, ByteArrayOutputStream buffer, int limit) throws IOException {
+        byte[] bytes = new byte[BUFFER_SIZE];
+        int read;
+        while (buffer.size() < limit && (read = is.read(bytes, 0, Math.min(bytes.length, limit - buffer.size()))) >= 0) {
+            buffer.write(bytes, 0, read);
+        }
+        return buffer.size() < limit;
+    }
+
+    /**
+     * Recreates a document from its title and canonical image and link URLs.
+     */
+    static Document restore(String title, List<String> images, List<String> links) {
+        Document document = new Document(null);
+        document.title = title;
+        document.images.addAll(images);
+        document.links.addAll(links);
+        return document;
+    }
+
+    public static Document parse(UrlResolver base, InputStream is, PageReader reader) throws IOException {
+        return parse(base, is, PageReader.contentType(is), reader);
+    }
+
+    /**
+     * Parses the page, decoding it with the charset of the given {@code Content-Type} unless it has a byte order mark.
+     */
+    public static Document parse(UrlResolver base, InputStream is, String contentType, PageReader reader) throws IOException {
+        return parse(base, is, contentType, reader, CrawlMetrics.global());
+    }
+
+    /**
+     * Parses the page as {@link #parse(UrlResolver, InputStream, String, PageReader)} does,
+     * recording parse and resolve times in the given metrics.
+     */
+    public static Document parse(UrlResolver base, InputStream is, String contentType, PageReader reader, CrawlMetrics metrics) throws IOException {
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        long start = System.nanoTime();
+        long readStart = is instanceof MeteredDownloader.Body ? ((MeteredDownloader.Body) is).readNanos() : 0;
+
+        Document document = new Document(base);
+        long bytes = reader.read(is, contentType, new HtmlTokenizer(document));
+
+        long readNanos = is instanceof MeteredDownloader.Body ? ((MeteredDownloader.Body) is).readNanos() - readStart : 0;
+        metrics.record(CrawlMetrics.Stage.PARSE, System.nanoTime() - start - readNanos - document.resolveNanos);
+        metrics.record(CrawlMetrics.Stage.RESOLVE, document.resolveNanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = base.toString();
+            event.bytes = bytes;
+            event.links = document.links.size();
+            event.images = document.images.size();
+            event.commit();
+        }
+        return document;
+    }
+
+    @Override
+    public void title(String title) {
+        this.title = title;
+    }
+
+    @Override
+    public void image(String src) {
+        String url = resolve(src);
+        if (url != null) {
+            images.add(url);
+        }
+    }
+
+    @Override
+    public void link(String href) {
+        String url = resolve(href);
+        if (url != null) {
+            links.add(url);
+        }
+    }
+
+    private String resolve(String link) {
+        long start = System.nanoTime();
+        String url = base.resolve(link);
+        resolveNanos += System.nanoTime() - start;
+        if (url == null) {
+            Logger.log(link + " is not a valid URL");
+        }
+        return url;
+    }
+}
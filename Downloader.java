@@ -2,10 +2,33 @@ package crawler;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
 /**
  * @author Georgiy Korneev (kgeorgiy@kgeorgiy.info)
  */
 public interface Downloader {
     InputStream download(String url) throws IOException;
+
+    /**
+     * Returns identity of the stored copy of the page, which changes whenever the stored copy is replaced,
+     * or {@code 0} if the downloader has no stored copy.
+     */
+    default long identity(String url) throws IOException {
+        return 0;
+    }
+
+    /**
+     * Downloads the URL to the file, replacing it.
+     * Downloaders keeping pages in local files override this method to copy them without reading into the heap.
+     */
+    default void downloadTo(String url, Path file) throws IOException {
+        try (InputStream is = download(url);
+             FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.transferFrom(Channels.newChannel(is), 0, Long.MAX_VALUE);
+        }
+    }
 }
@@ -0,0 +1,179 @@
+package crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Fixtures shared by the crawler tests: reading downloads, sites of numbered pages and temporary directories.
+ */
+class DownloaderTests {
+    private DownloaderTests() {
+    }
+
+    /**
+     * Checks that download of the URL fails and returns the error.
+     */
+    static IOException assertFails(Downloader downloader, String url) {
+        try {
+            read(downloader, url);
+        } catch (IOException e) {
+            System.err.println("Expected error: " + e.getMessage());
+            return e;
+        }
+        throw new AssertionError("Download of " + url + " should fail");
+    }
+
+    static byte[] read(Downloader downloader, String url) throws IOException {
+        try (InputStream is = downloader.download(url)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    static String readString(Downloader downloader, String url) throws IOException {
+        return new String(read(downloader, url), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes the directory with all its contents.
+     */
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Returns URL of the page of {@link NumberedSite}.
+     */
+    static String page(int page) {
+        return "http://www.example.com/p" + page + ".html";
+    }
+
+    /**
+     * Site of pages {@link #page page(i)}, page {@code i} titled {@code Page i}
+     * and linking to pages {@code k * i + 1} to {@code k * i + k} for fan-out {@code k}.
+     * Images of the site are {@value #IMAGE_SIZE} bytes long.
+     */
+    static class NumberedSite implements Downloader {
+        private static final int IMAGE_SIZE = 100;
+
+        private final int fanOut;
+        private final AtomicInteger downloads = new AtomicInteger();
+        private int pages = Integer.MAX_VALUE;
+        private int failureInterval;
+        private boolean upLinks;
+        private int size;
+        private int images;
+        private long latency;
+
+        NumberedSite(int fanOut) {
+            this.fanOut = fanOut;
+        }
+
+        /**
+         * Limits the site to pages {@code 0} to {@code pages - 1}.
+         */
+        NumberedSite pages(int pages) {
+            this.pages = pages;
+            return this;
+        }
+
+        /**
+         * Fails download of every {@code interval}-th page.
+         */
+        NumberedSite failures(int interval) {
+            this.failureInterval = interval;
+            return this;
+        }
+
+        /**
+         * Links page {@code i} to page {@code i / k} as well.
+         */
+        NumberedSite upLinks() {
+            this.upLinks = true;
+            return this;
+        }
+
+        /**
+         * Pads pages with spaces to {@code size} bytes.
+         */
+        NumberedSite size(int size) {
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Shows {@code images} images of its own on every page.
+         */
+        NumberedSite images(int images) {
+            this.images = images;
+            return this;
+        }
+
+        /**
+         * Makes every download take {@code latency} milliseconds.
+         */
+        NumberedSite latency(long latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Returns the number of downloads, including failed ones.
+         */
+        int getDownloads() {
+            return downloads.get();
+        }
+
+        @Override
+        public InputStream download(String url) throws IOException {
+            downloads.incrementAndGet();
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            String name = url.substring(url.lastIndexOf('/') + 1);
+            if (name.endsWith(".png")) {
+                return new ByteArrayInputStream(new byte[IMAGE_SIZE]);
+            }
+            int page = name.startsWith("p") && name.endsWith(".html") ? Integer.parseInt(name.substring(1, name.length() - 5)) : -1;
+            if (page < 0 || page >= pages || failureInterval > 0 && page % failureInterval == failureInterval - 1) {
+                throw new IOException("Unknown page " + url);
+            }
+            StringBuilder html = new StringBuilder("<html><head><title>Page ").append(page).append("</title></head><body>");
+            for (int i = 1; i <= fanOut; i++) {
+                html.append("<a href=\"").append(page(fanOut * page + i)).append("\">link</a>");
+            }
+            if (upLinks) {
+                html.append("<a href=\"").append(page(page / fanOut)).append("\">up</a>");
+            }
+            for (int i = 0; i < images; i++) {
+                html.append("<img src=\"i").append(page).append('-').append(i).append(".png\">");
+            }
+            html.append("</body></html>");
+            while (html.length() < size) {
+                html.append(' ');
+            }
+            return new ByteArrayInputStream(html.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
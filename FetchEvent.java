@@ -0,0 +1,29 @@
+package crawler;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event spanning a download, from the request to the end of the body.
+ */
+@Name("crawler.Fetch")
+@Label("Fetch")
+@Category("Crawler")
+@Description("Download of a page or an image")
+class FetchEvent extends jdk.jfr.Event {
+    @Label("URL")
+    String url;
+
+    @Label("Host")
+    String host;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Error")
+    String error;
+}
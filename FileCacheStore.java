@@ -0,0 +1,73 @@
+package crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores each record in a separate file named after the encoded URL.
+ * Records are written to a temporary file first, so readers never see a partial record.
+ */
+public class FileCacheStore implements CacheStore {
+    private final Path directory;
+
+    public FileCacheStore(final Path directory) throws IOException {
+        this.directory = directory;
+        CachingDownloader.createDirectory(directory);
+    }
+
+    @Override
+    public InputStream read(final String url) throws IOException {
+        final Path file = directory.resolve(CachingDownloader.encode(url));
+        if (Files.notExists(file)) {
+            return null;
+        }
+        try {
+            return Files.newInputStream(file);
+        } catch (FileSystemException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public Path locate(final String url) {
+        final Path file = directory.resolve(CachingDownloader.encode(url));
+        return Files.exists(file) ? file : null;
+    }
+
+    /**
+     * Returns identity made of the modification time, the size and the file key of the record file.
+     * Records are replaced by moving new files in place, so the file key changes with the record.
+     */
+    @Override
+    public long identity(final String url) throws IOException {
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(directory.resolve(CachingDownloader.encode(url)), BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            return 0;
+        }
+        long identity = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS) * 31 + attributes.size();
+        if (attributes.fileKey() != null) {
+            identity = identity * 31 + attributes.fileKey().hashCode();
+        }
+        return identity == 0 ? 1 : identity;
+    }
+
+    @Override
+    public void write(final String url, final InputStream record) throws IOException {
+        final Path tmp = Files.createTempFile(directory, "record", ".tmp");
+        try {
+            Files.copy(record, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, directory.resolve(CachingDownloader.encode(url)), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,181 @@
+package crawler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * FIFO queue of crawl tasks, each being an URL id with the remaining depth.
+ * <p>
+ * A task is dropped at enqueue time when its URL was already queued with an equal
+ * or greater depth. Tasks exceeding the memory limit are spilled to sequential segment
+ * files and read back in order. Tasks are returned packed into {@code long} values,
+ * see {@link #id(long)} and {@link #depth(long)}. Instances are not thread-safe.
+ */
+class Frontier implements Closeable {
+    private final Path directory;
+    private final int segmentSize;
+
+    private int[] queuedDepths = new int[16];
+
+    private long[] head;
+    private int headPosition;
+    private int headSize;
+    private long[] tail;
+    private int tailSize;
+    private final Deque<Path> segments = new ArrayDeque<>();
+    private long size;
+
+    /**
+     * Creates a frontier holding at most {@code memoryLimit} tasks in memory.
+     *
+     * @param directory directory for the spilled segments
+     */
+    Frontier(int memoryLimit, Path directory) {
+        if (memoryLimit < 2) {
+            throw new IllegalArgumentException("Memory limit should be at least 2");
+        }
+        this.directory = directory;
+        this.segmentSize = memoryLimit / 2;
+        head = new long[Math.min(segmentSize, 1 << 10)];
+        tail = new long[Math.min(segmentSize, 1 << 10)];
+    }
+
+    public static int id(long task) {
+        return (int) (task >>> 32);
+    }
+
+    public static int depth(long task) {
+        return (int) task;
+    }
+
+    /**
+     * Enqueues the task, unless its URL was already queued with at least the same depth.
+     *
+     * @return whether the task was enqueued
+     */
+    public boolean add(int id, int depth) {
+        if (id >= queuedDepths.length) {
+            queuedDepths = Arrays.copyOf(queuedDepths, Math.max(id + 1, queuedDepths.length * 2));
+        }
+        if (queuedDepths[id] > depth) {
+            return false;
+        }
+        queuedDepths[id] = depth + 1;
+
+        long task = (long) id << 32 | depth;
+        if (segments.isEmpty() && tailSize == 0 && headSize < segmentSize) {
+            if (headSize == head.length) {
+                compactHead();
+            }
+            head[headSize++] = task;
+        } else {
+            if (tailSize == tail.length) {
+                if (tailSize == segmentSize) {
+                    spill();
+                } else {
+                    tail = Arrays.copyOf(tail, Math.min(tail.length * 2, segmentSize));
+                }
+            }
+            tail[tailSize++] = task;
+        }
+        size++;
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the first task without removing it.
+     */
+    public long peek() {
+        if (size == 0) {
+            throw new IllegalStateException("Frontier is empty");
+        }
+        if (headPosition == headSize) {
+            refill();
+        }
+        return head[headPosition];
+    }
+
+    /**
+     * Removes and returns the first task.
+     */
+    public long poll() {
+        long task = peek();
+        headPosition++;
+        size--;
+        return task;
+    }
+
+    private void compactHead() {
+        if (headPosition > 0) {
+            System.arraycopy(head, headPosition, head, 0, headSize - headPosition);
+            headSize -= headPosition;
+            headPosition = 0;
+        } else {
+            head = Arrays.copyOf(head, Math.min(head.length * 2, segmentSize));
+        }
+    }
+
+    private void refill() {
+        headPosition = 0;
+        if (segments.isEmpty()) {
+            long[] swap = head;
+            head = tail;
+            headSize = tailSize;
+            tail = swap;
+            tailSize = 0;
+        } else {
+            Path segment = segments.pollFirst();
+            try (DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+                headSize = is.readInt();
+                if (head.length < headSize) {
+                    head = new long[headSize];
+                }
+                for (int i = 0; i < headSize; i++) {
+                    head[i] = is.readLong();
+                }
+                Files.delete(segment);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read frontier segment " + segment, e);
+            }
+        }
+    }
+
+    private void spill() {
+        try {
+            Path segment = Files.createTempFile(directory, "frontier", ".segment");
+            try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment)))) {
+                os.writeInt(tailSize);
+                for (int i = 0; i < tailSize; i++) {
+                    os.writeLong(tail[i]);
+                }
+            }
+            segments.addLast(segment);
+            tailSize = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot spill frontier to " + directory, e);
+        }
+    }
+
+    /**
+     * Removes the spilled segments.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path segment : segments) {
+            Files.deleteIfExists(segment);
+        }
+        segments.clear();
+    }
+}
@@ -0,0 +1,123 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Tests {@link Frontier}: order of spilled and reloaded tasks and deduplication.
+ */
+public class FrontierTest {
+    private static final TestCounter COUNTER = new TestCounter();
+
+    public static void main(String[] args) throws IOException {
+        testOrder(2);
+        testOrder(10);
+        testOrder(1 << 20);
+        testDeduplication();
+        testClose();
+        COUNTER.printStatus(FrontierTest.class);
+    }
+
+    /**
+     * Checks that tasks come out in the order they were added, while adds and polls interleave
+     * and tasks are spilled and reloaded.
+     */
+    private static void testOrder(int memoryLimit) throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing order, memory limit " + memoryLimit);
+        Path directory = Files.createTempDirectory("frontier");
+        Random random = new Random(memoryLimit);
+        Deque<Long> expected = new ArrayDeque<>();
+        int maxSegments = 0;
+        try (Frontier frontier = new Frontier(memoryLimit, directory)) {
+            int id = 0;
+            for (int round = 0; round < 100; round++) {
+                for (int i = random.nextInt(200); i > 0; i--, id++) {
+                    int depth = random.nextInt(5);
+                    Asserts.assertTrue("Task is dropped", frontier.add(id, depth));
+                    expected.addLast((long) id << 32 | depth);
+                }
+                maxSegments = Math.max(maxSegments, segments(directory));
+                for (int i = random.nextInt(200); i > 0 && !expected.isEmpty(); i--) {
+                    Asserts.assertEquals("Size", (long) expected.size(), frontier.size());
+                    Asserts.assertEquals("Peeked task", expected.peekFirst(), frontier.peek());
+                    Asserts.assertEquals("Polled task", expected.pollFirst(), frontier.poll());
+                }
+            }
+            while (!expected.isEmpty()) {
+                Asserts.assertEquals("Remaining task", expected.pollFirst(), frontier.poll());
+            }
+            Asserts.assertTrue("Frontier is not empty", frontier.isEmpty());
+            Asserts.assertEquals("Spilled", memoryLimit < 100, maxSegments > 0);
+            Asserts.assertEquals("Segments left", 0, segments(directory));
+        } finally {
+            Files.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    private static void testDeduplication() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing deduplication");
+        Path directory = Files.createTempDirectory("frontier");
+        try (Frontier frontier = new Frontier(4, directory)) {
+            Asserts.assertTrue("New URL", frontier.add(7, 2));
+            Asserts.assertTrue("Same depth", !frontier.add(7, 2));
+            Asserts.assertTrue("Lower depth", !frontier.add(7, 1));
+            Asserts.assertTrue("Greater depth", frontier.add(7, 3));
+            Asserts.assertTrue("Zero depth", frontier.add(1000, 0));
+            Asserts.assertTrue("Zero depth again", !frontier.add(1000, 0));
+            Asserts.assertEquals("Size", 3L, frontier.size());
+            long task = frontier.poll();
+            Asserts.assertEquals("Id", 7, Frontier.id(task));
+            Asserts.assertEquals("Depth", 2, Frontier.depth(task));
+            Asserts.assertTrue("Polled URL is added again", !frontier.add(7, 1));
+            Asserts.assertEquals("Depth", 3, Frontier.depth(frontier.poll()));
+            Asserts.assertEquals("Id", 1000, Frontier.id(frontier.poll()));
+            try {
+                frontier.peek();
+                throw new AssertionError("Empty frontier returned a task");
+            } catch (IllegalStateException e) {
+                // Expected
+            }
+        } finally {
+            Files.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that closing removes segments that were not read back.
+     */
+    private static void testClose() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing close");
+        Path directory = Files.createTempDirectory("frontier");
+        try {
+            Frontier frontier = new Frontier(4, directory);
+            for (int id = 0; id < 100; id++) {
+                frontier.add(id, 1);
+            }
+            Asserts.assertTrue("Nothing spilled", segments(directory) > 0);
+            frontier.close();
+            Asserts.assertEquals("Segments left", 0, segments(directory));
+        } finally {
+            Files.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    private static int segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return (int) files.count();
+        }
+    }
+}
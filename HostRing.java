@@ -0,0 +1,49 @@
+package crawler;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring assigning URLs to workers by host.
+ * <p>
+ * Every worker owns a number of points on the ring, a host belongs to the worker
+ * owning the first point after the hash of the host. Adding a worker moves
+ * only the hosts that fall to its points. All pages and images of a host have the same owner.
+ */
+class HostRing {
+    private static final int POINTS = 128;
+
+    private final TreeMap<Integer, Integer> ring = new TreeMap<>();
+
+    HostRing(int workers) {
+        if (workers <= 0) {
+            throw new IllegalArgumentException("Number of workers should be positive");
+        }
+        for (int worker = 0; worker < workers; worker++) {
+            for (int point = 0; point < POINTS; point++) {
+                ring.putIfAbsent(hash("worker-" + worker + "#" + point), worker);
+            }
+        }
+    }
+
+    /**
+     * Returns index of the worker owning host of the URL.
+     */
+    public int owner(String url) {
+        Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash(MeteredDownloader.host(url)));
+        return (entry == null ? ring.firstEntry() : entry).getValue();
+    }
+
+    /**
+     * Returns a hash that is the same in all JVMs, mixing bits of {@link String#hashCode()}.
+     */
+    private static int hash(String s) {
+        int h = s.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
@@ -0,0 +1,379 @@
+package crawler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs downloads on a fixed set of workers, keeping a separate queue for each host.
+ * <p>
+ * Every host has a concurrency cap and a token-bucket rate limit, optionally slowed down
+ * to the {@code Crawl-delay} of its {@code robots.txt}. Workers take hosts that are ready
+ * in round-robin order, so a host with a long queue or a low rate does not hold up the others.
+ * A host waiting for tokens is parked until its next token is due. The {@code robots.txt} of a host
+ * is fetched before any other download from it starts.
+ */
+class HostScheduler implements AutoCloseable {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Downloader downloader;
+    private final int perHost;
+    private final ExecutorService workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final Queue<Host> ready = new ArrayDeque<>();
+    private final PriorityQueue<Host> delayed = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+    private long interval;
+    private int burst = 1;
+    private boolean respectCrawlDelay;
+
+    /**
+     * Creates a scheduler without rate limits.
+     *
+     * @param threads number of workers
+     * @param perHost maximal number of concurrent downloads from a single host
+     */
+    HostScheduler(Downloader downloader, int threads, int perHost) {
+        this.downloader = downloader;
+        this.perHost = perHost;
+        this.workers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.submit(this::work);
+        }
+    }
+
+    /**
+     * Limits the rate of downloads from every host.
+     *
+     * @param rate maximal number of downloads per second from a single host, non-positive for no limit
+     * @param burst number of downloads a host may get at once after being idle
+     */
+    public void setRate(double rate, int burst) {
+        lock.lock();
+        try {
+            this.interval = rate > 0 ? (long) (SECOND / rate) : 0;
+            this.burst = burst;
+            for (Host host : hosts.values()) {
+                host.limit();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sets whether to respect {@code Crawl-delay} of {@code robots.txt} of every host.
+     * Hosts seen before are slowed down once their {@code robots.txt} is fetched.
+     */
+    public void setRespectCrawlDelay(boolean respectCrawlDelay) {
+        lock.lock();
+        try {
+            this.respectCrawlDelay = respectCrawlDelay;
+            for (Host host : hosts.values()) {
+                if (respectCrawlDelay && host.robots != null) {
+                    fetchRobots(host);
+                    offer(host);
+                }
+                host.limit();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues download of the URL.
+     *
+     * @return future completed when the task finishes, exceptionally if it throws
+     */
+    public CompletableFuture<Void> submit(URL url, Runnable task) {
+        return submitAsync(url, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Queues download of the URL that may go on after the task returns, such as streaming of a body
+     * by another thread. The host slot is held until the returned stage completes, the worker is released
+     * as soon as the task returns; a {@code null} stage means the download is over.
+     *
+     * @return future completed when the task and its stage finish, exceptionally if either fails
+     */
+    public CompletableFuture<Void> submitAsync(URL url, Callable<CompletionStage<?>> task) {
+        Task queued = new Task(task);
+        lock.lock();
+        try {
+            Host host = hosts.get(url.getHost());
+            if (host == null) {
+                host = new Host(url.getProtocol() + "://" + url.getAuthority() + "/robots.txt");
+                hosts.put(url.getHost(), host);
+                if (respectCrawlDelay) {
+                    fetchRobots(host);
+                }
+            }
+            host.queue.add(queued);
+            offer(host);
+        } finally {
+            lock.unlock();
+        }
+        return queued.result;
+    }
+
+    /**
+     * Puts the fetch of {@code robots.txt} in front of the host queue;
+     * the host runs nothing else until it completes.
+     */
+    private void fetchRobots(Host host) {
+        String robots = host.robots;
+        host.robots = null;
+        host.fetchingRobots = true;
+        host.queue.addFirst(new Task(() -> {
+            long delay = 0;
+            try {
+                delay = crawlDelay(robots);
+            } finally {
+                lock.lock();
+                try {
+                    host.fetchingRobots = false;
+                    host.slowDown(delay);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return null;
+        }));
+    }
+
+    private void work() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Host host;
+                Task task;
+                lock.lock();
+                try {
+                    host = next();
+                    task = host.queue.poll();
+                    host.active++;
+                    offer(host);
+                } finally {
+                    lock.unlock();
+                }
+                CompletionStage<?> pending = null;
+                try {
+                    pending = task.action.call();
+                } catch (Throwable e) {
+                    Logger.log("Download task failed: " + e);
+                    task.result.completeExceptionally(e);
+                }
+                if (pending == null) {
+                    task.result.complete(null);
+                    release(host);
+                } else {
+                    Host owner = host;
+                    pending.whenComplete((value, e) -> {
+                        if (e == null) {
+                            task.result.complete(null);
+                        } else {
+                            Logger.log("Download task failed: " + e);
+                            task.result.completeExceptionally(e);
+                        }
+                        release(owner);
+                    });
+                }
+            }
+        } catch (InterruptedException e) {
+            // Scheduler is closed
+        }
+    }
+
+    /**
+     * Frees a slot of the host once its download is over.
+     */
+    private void release(Host host) {
+        lock.lock();
+        try {
+            host.active--;
+            offer(host);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for a host that may start a download and takes a token from it.
+     */
+    private Host next() throws InterruptedException {
+        while (true) {
+            long now = System.nanoTime();
+            while (!delayed.isEmpty() && delayed.peek().due <= now) {
+                Host host = delayed.poll();
+                host.state = State.READY;
+                ready.add(host);
+            }
+            Host host = ready.poll();
+            if (host != null) {
+                host.state = State.IDLE;
+                long due = host.acquire(now);
+                if (due <= now) {
+                    return host;
+                }
+                host.due = due;
+                host.state = State.DELAYED;
+                delayed.add(host);
+            } else if (delayed.isEmpty()) {
+                changed.await();
+            } else {
+                changed.awaitNanos(delayed.peek().due - now);
+            }
+        }
+    }
+
+    /**
+     * Makes the host ready if it has queued tasks and free slots.
+     */
+    private void offer(Host host) {
+        if (host.state == State.IDLE && !host.queue.isEmpty() && host.active < (host.fetchingRobots ? 1 : perHost)) {
+            host.state = State.READY;
+            ready.add(host);
+            changed.signal();
+        }
+    }
+
+    /**
+     * Returns the crawl delay in nanoseconds for all user agents, or zero if there is none.
+     */
+    private long crawlDelay(String robots) {
+        try (InputStream is = downloader.download(robots)) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+            boolean applies = false;
+            boolean agents = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String field = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                if (field.equals("user-agent")) {
+                    applies = (agents && applies) || value.equals("*");
+                    agents = true;
+                } else {
+                    agents = false;
+                    if (applies && field.equals("crawl-delay")) {
+                        return (long) (Double.parseDouble(value) * SECOND);
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // No usable robots.txt
+        }
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+
+    private enum State {
+        IDLE, READY, DELAYED
+    }
+
+    private static class Task {
+        private final Callable<CompletionStage<?>> action;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        private Task(Callable<CompletionStage<?>> action) {
+            this.action = action;
+        }
+    }
+
+    private class Host {
+        private final Deque<Task> queue = new ArrayDeque<>();
+        private int active;
+        private State state = State.IDLE;
+        private long due;
+        /** URL of {@code robots.txt}, {@code null} once its fetch is queued. */
+        private String robots;
+        private boolean fetchingRobots;
+        private long crawlDelay;
+
+        private long interval;
+        private long capacity;
+        private long tokens;
+        private long refilled = System.nanoTime();
+
+        private Host(String robots) {
+            this.robots = robots;
+            limit();
+            tokens = capacity;
+        }
+
+        /**
+         * Applies the scheduler rate limit, or the crawl delay if it is respected and longer.
+         */
+        private void limit() {
+            long delay = respectCrawlDelay ? crawlDelay : 0;
+            interval = Math.max(HostScheduler.this.interval, delay);
+            capacity = delay > HostScheduler.this.interval ? 1 : burst;
+            tokens = Math.min(tokens, capacity);
+        }
+
+        /**
+         * Limits the host to a single download per {@code delay} nanoseconds, starting now.
+         */
+        private void slowDown(long delay) {
+            crawlDelay = delay;
+            limit();
+            if (respectCrawlDelay && delay > 0) {
+                tokens = 0;
+                refilled = System.nanoTime();
+            }
+        }
+
+        /**
+         * Takes a token, returns the time it is available at.
+         */
+        private long acquire(long now) {
+            if (interval == 0) {
+                return now;
+            }
+            long earned = (now - refilled) / interval;
+            if (earned > 0) {
+                tokens = Math.min(capacity, tokens + earned);
+                refilled = tokens == capacity ? now : refilled + earned * interval;
+            }
+            if (tokens == 0) {
+                return refilled + interval;
+            }
+            tokens--;
+            return now;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests rate limits, concurrency caps and {@code Crawl-delay} of {@link HostScheduler}.
+ */
+public class HostSchedulerTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final long MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    public static void main(String[] args) throws IOException {
+        testRate();
+        testBurst();
+        testPerHost();
+        testCrawlDelay();
+        testAsync();
+        COUNTER.printStatus(HostSchedulerTest.class);
+    }
+
+    /**
+     * Checks that downloads of a rate-limited host are spaced out, while other hosts are not held up by it.
+     */
+    private static void testRate() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing rate");
+        try (HostScheduler scheduler = new HostScheduler(robots(""), 4, 4)) {
+            scheduler.setRate(20, 1);
+            long start = System.nanoTime();
+            List<Long> times = run(scheduler, "http://www.example.com/", 11, start);
+            checkSpacing("Host", times, 50);
+            Asserts.assertTrue("Host took " + last(times) + " ms", last(times) >= 490);
+        }
+        try (HostScheduler scheduler = new HostScheduler(robots(""), 4, 4)) {
+            scheduler.setRate(20, 1);
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            List<Long> first = Collections.synchronizedList(new ArrayList<>());
+            List<Long> second = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < 11; i++) {
+                futures.add(scheduler.submit(url("http://a.example.com/" + i), () -> first.add(elapsed(start))));
+                futures.add(scheduler.submit(url("http://b.example.com/" + i), () -> second.add(elapsed(start))));
+            }
+            join(futures);
+            Asserts.assertTrue("Hosts are not interleaved: " + first + " " + second, last(first) < 800 && last(second) < 800);
+            checkSpacing("First host", first, 50);
+            checkSpacing("Second host", second, 50);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that an idle host gets a burst of downloads at once, then is limited to its rate.
+     */
+    private static void testBurst() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing burst");
+        try (HostScheduler scheduler = new HostScheduler(robots(""), 4, 4)) {
+            scheduler.setRate(10, 5);
+            long start = System.nanoTime();
+            List<Long> times = run(scheduler, "http://www.example.com/", 8, start);
+            Asserts.assertTrue("Burst " + times, times.get(4) < 80);
+            Asserts.assertTrue("Rate after burst " + times, times.get(5) >= 90 && last(times) >= 290);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that at most {@code perHost} downloads from a host run at once.
+     */
+    private static void testPerHost() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing concurrency per host");
+        try (HostScheduler scheduler = new HostScheduler(robots(""), 8, 2)) {
+            AtomicInteger active = new AtomicInteger();
+            AtomicInteger maxActive = new AtomicInteger();
+            AtomicInteger otherActive = new AtomicInteger();
+            AtomicInteger maxOtherActive = new AtomicInteger();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                futures.add(scheduler.submit(url("http://a.example.com/" + i), () -> hold(active, maxActive)));
+                futures.add(scheduler.submit(url("http://b.example.com/" + i), () -> hold(otherActive, maxOtherActive)));
+            }
+            join(futures);
+            Asserts.assertEquals("Concurrent downloads of a host", 2, maxActive.get());
+            Asserts.assertEquals("Concurrent downloads of another host", 2, maxOtherActive.get());
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that {@code robots.txt} is fetched once, before other downloads of the host,
+     * and that its crawl delay is respected for the user agent {@code *} only.
+     */
+    private static void testCrawlDelay() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing crawl delay");
+        String robots = "User-agent: other\nCrawl-delay: 10\n\n# Everyone else\nUser-agent: *\nCrawl-delay: 0.1\n";
+        List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        Downloader downloader = url -> {
+            requests.add(url);
+            return new ByteArrayInputStream(robots.getBytes(StandardCharsets.UTF_8));
+        };
+        try (HostScheduler scheduler = new HostScheduler(downloader, 4, 4)) {
+            scheduler.setRespectCrawlDelay(true);
+            long start = System.nanoTime();
+            List<Long> times = run(scheduler, "http://www.example.com/", 6, start);
+            Asserts.assertEquals("Requests", Collections.singletonList("http://www.example.com/robots.txt"), requests);
+            checkSpacing("Delayed host", times, 100);
+            Asserts.assertTrue("Delay " + times, times.get(0) >= 90 && last(times) >= 590);
+
+            scheduler.setRespectCrawlDelay(false);
+            start = System.nanoTime();
+            times = run(scheduler, "http://www.example.com/", 6, start);
+            Asserts.assertTrue("Ignored delay " + times, last(times) < 300);
+            Asserts.assertEquals("Requests", 1, requests.size());
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that an asynchronous task holds its host slot until its stage completes,
+     * but not its worker.
+     */
+    private static void testAsync() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing asynchronous tasks");
+        try (HostScheduler scheduler = new HostScheduler(robots(""), 1, 1)) {
+            CompletableFuture<Void> body = new CompletableFuture<>();
+            CompletableFuture<Void> first = scheduler.submitAsync(url("http://a.example.com/1"), () -> body);
+            CompletableFuture<Void> second = scheduler.submit(url("http://a.example.com/2"), () -> {});
+            CompletableFuture<Void> other = scheduler.submit(url("http://b.example.com/1"), () -> {});
+            join(Collections.singletonList(other));
+            sleep(100);
+            Asserts.assertTrue("Task completed before its stage", !first.isDone());
+            Asserts.assertTrue("Host slot released before the stage completed", !second.isDone());
+            body.complete(null);
+            join(List.of(first, second));
+
+            CompletableFuture<Void> failing = new CompletableFuture<>();
+            CompletableFuture<Void> failed = scheduler.submitAsync(url("http://a.example.com/3"), () -> failing);
+            failing.completeExceptionally(new IOException("Broken body"));
+            try {
+                failed.get(10, TimeUnit.SECONDS);
+                throw new AssertionError("Failure of the stage is lost");
+            } catch (ExecutionException e) {
+                Asserts.assertEquals("Failure", "Broken body", e.getCause().getMessage());
+            } catch (InterruptedException | TimeoutException e) {
+                throw new AssertionError(e);
+            }
+            join(Collections.singletonList(scheduler.submit(url("http://a.example.com/4"), () -> {})));
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Runs downloads of the host one after another in the queue, returning their start times in milliseconds.
+     */
+    private static List<Long> run(HostScheduler scheduler, String host, int count, long start) {
+        List<Long> times = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            futures.add(scheduler.submit(url(host + i), () -> times.add(elapsed(start))));
+        }
+        join(futures);
+        Collections.sort(times);
+        return times;
+    }
+
+    private static void checkSpacing(String name, List<Long> times, long interval) {
+        for (int i = 1; i < times.size(); i++) {
+            Asserts.assertTrue(name + " is not spaced out: " + times, times.get(i) - times.get(i - 1) >= interval - 10);
+        }
+    }
+
+    private static void hold(AtomicInteger active, AtomicInteger maxActive) {
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        sleep(20);
+        active.decrementAndGet();
+    }
+
+    private static Downloader robots(String robots) {
+        return url -> new ByteArrayInputStream(robots.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long elapsed(long start) {
+        return (System.nanoTime() - start) / MILLI;
+    }
+
+    private static long last(List<Long> times) {
+        return times.get(times.size() - 1);
+    }
+
+    private static void join(List<CompletableFuture<Void>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static URL url(String url) {
+        try {
+            return new URL(url);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package crawler;
+
+/**
+ * Single-pass HTML tokenizer reporting the title, image sources and link targets of a page.
+ * Input is fed in chunks of any size; comments, {@code <script>} and {@code <style>}
+ * contents are skipped, entities are decoded while the values are collected.
+ */
+class HtmlTokenizer {
+    interface Handler {
+        void title(String title);
+
+        void image(String src);
+
+        void link(String href);
+    }
+
+    private static final int DATA = 0;
+    private static final int TAG_OPEN = 1;
+    private static final int MARKUP_OPEN = 2;
+    private static final int COMMENT = 3;
+    private static final int BOGUS = 4;
+    private static final int END_TAG_OPEN = 5;
+    private static final int TAG_NAME = 6;
+    private static final int BEFORE_ATTRIBUTE_NAME = 7;
+    private static final int ATTRIBUTE_NAME = 8;
+    private static final int AFTER_ATTRIBUTE_NAME = 9;
+    private static final int BEFORE_ATTRIBUTE_VALUE = 10;
+    private static final int ATTRIBUTE_VALUE = 11;
+    private static final int RAW_TEXT = 12;
+    private static final int RAW_TEXT_END = 13;
+    private static final int ENTITY = 14;
+
+    private static final int OTHER = 0;
+    private static final int A = 1;
+    private static final int IMG = 2;
+    private static final int TITLE = 3;
+    private static final int SCRIPT = 4;
+    private static final int STYLE = 5;
+    private static final String[] NAMES = {null, "a", "img", "title", "script", "style"};
+    private static final String[] ATTRIBUTES = {null, "href", "src", null, null, null};
+
+    private static final String[] ENTITIES = {"lt", "gt", "amp", "mdash", "nbsp"};
+    private static final char[] ENTITY_CHARS = {'<', '>', '&', '\u2014', '\u00A0'};
+
+    private final Handler handler;
+    private int state = DATA;
+
+    private final char[] name = new char[8];
+    private int nameLength;
+    private boolean endTag;
+    private int tag;
+
+    private String attribute;
+    private int attributeLength;
+    private boolean attributeMatches;
+    private char quote;
+    private boolean capturing;
+    private boolean captured;
+    private final StringBuilder value = new StringBuilder();
+
+    private int rawTag;
+    private final char[] pending = new char[8];
+    private int pendingLength;
+    private final StringBuilder title = new StringBuilder();
+    private boolean inTitle;
+    private boolean titleDone;
+
+    private final char[] entity = new char[8];
+    private int entityLength;
+    private int entityReturn;
+    private StringBuilder entitySink;
+
+    HtmlTokenizer(Handler handler) {
+        this.handler = handler;
+    }
+
+    public void feed(char[] chars, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            if (state == DATA) {
+                while (i < end && chars[i] != '<') {
+                    i++;
+                }
+                if (i == end) {
+                    break;
+                }
+                state = TAG_OPEN;
+                i++;
+            } else if (state == COMMENT) {
+                while (i < end && chars[i] != '-' && chars[i] != '>') {
+                    nameLength = 0;
+                    i++;
+                }
+                if (i < end) {
+                    comment(chars[i++]);
+                }
+            } else if (process(chars[i])) {
+                i++;
+            }
+        }
+    }
+
+    public void finish() {
+        state = DATA;
+    }
+
+    /**
+     * Processes a single character.
+     *
+     * @return {@code false} if the character should be processed again in the new state
+     */
+    private boolean process(char c) {
+        switch (state) {
+            case TAG_OPEN:
+                if (c == '!') {
+                    nameLength = 0;
+                    state = MARKUP_OPEN;
+                } else if (c == '/') {
+                    state = END_TAG_OPEN;
+                } else if (isLetter(c)) {
+                    startTag(false);
+                    return false;
+                } else if (c == '?') {
+                    state = BOGUS;
+                } else {
+                    state = DATA;
+                    return false;
+                }
+                return true;
+            case MARKUP_OPEN:
+                if (c == '-' && ++nameLength == 2) {
+                    nameLength = 0;
+                    state = COMMENT;
+                } else if (c != '-') {
+                    state = BOGUS;
+                    return false;
+                }
+                return true;
+            case BOGUS:
+                if (c == '>') {
+                    state = DATA;
+                }
+                return true;
+            case END_TAG_OPEN:
+                if (isLetter(c)) {
+                    startTag(true);
+                    return false;
+                }
+                state = c == '>' ? DATA : BOGUS;
+                return true;
+            case TAG_NAME:
+                if (isSpace(c) || c == '/') {
+                    endTagName();
+                    state = BEFORE_ATTRIBUTE_NAME;
+                } else if (c == '>') {
+                    endTagName();
+                    emitTag();
+                } else if (nameLength < name.length) {
+                    name[nameLength++] = toLower(c);
+                } else {
+                    nameLength = name.length + 1;
+                }
+                return true;
+            case BEFORE_ATTRIBUTE_NAME:
+                if (c == '>') {
+                    emitTag();
+                } else if (!isSpace(c) && c != '/') {
+                    attributeLength = 0;
+                    attributeMatches = attribute != null && !captured;
+                    state = ATTRIBUTE_NAME;
+                    return false;
+                }
+                return true;
+            case ATTRIBUTE_NAME:
+                if (isSpace(c)) {
+                    endAttributeName();
+                    state = AFTER_ATTRIBUTE_NAME;
+                } else if (c == '/') {
+                    state = BEFORE_ATTRIBUTE_NAME;
+                } else if (c == '=') {
+                    endAttributeName();
+                    state = BEFORE_ATTRIBUTE_VALUE;
+                } else if (c == '>') {
+                    emitTag();
+                } else if (attributeMatches) {
+                    attributeMatches = attributeLength < attribute.length() && attribute.charAt(attributeLength++) == toLower(c);
+                }
+                return true;
+            case AFTER_ATTRIBUTE_NAME:
+                if (c == '=') {
+                    state = BEFORE_ATTRIBUTE_VALUE;
+                } else if (c == '>') {
+                    emitTag();
+                } else if (!isSpace(c)) {
+                    state = BEFORE_ATTRIBUTE_NAME;
+                    return false;
+                }
+                return true;
+            case BEFORE_ATTRIBUTE_VALUE:
+                if (c == '>') {
+                    emitTag();
+                } else if (!isSpace(c)) {
+                    capturing = attributeMatches;
+                    if (capturing) {
+                        value.setLength(0);
+                    }
+                    state = ATTRIBUTE_VALUE;
+                    if (c == '"' || c == '\'') {
+                        quote = c;
+                    } else {
+                        quote = 0;
+                        return false;
+                    }
+                }
+                return true;
+            case ATTRIBUTE_VALUE:
+                if (quote != 0 ? c == quote : isSpace(c)) {
+                    endAttributeValue();
+                    state = BEFORE_ATTRIBUTE_NAME;
+                } else if (quote == 0 && c == '>') {
+                    endAttributeValue();
+                    emitTag();
+                } else if (capturing) {
+                    if (c == '&') {
+                        startEntity(value);
+                    } else {
+                        value.append(c);
+                    }
+                }
+                return true;
+            case RAW_TEXT:
+                if (c == '<') {
+                    pendingLength = 0;
+                    state = RAW_TEXT_END;
+                } else if (inTitle) {
+                    if (c == '&') {
+                        startEntity(title);
+                    } else {
+                        title.append(c);
+                    }
+                }
+                return true;
+            case RAW_TEXT_END:
+                return rawTextEnd(c);
+            case ENTITY:
+                return entity(c);
+            default:
+                throw new AssertionError("Unknown state " + state);
+        }
+    }
+
+    private void comment(char c) {
+        if (c == '-') {
+            nameLength++;
+        } else {
+            if (nameLength >= 2) {
+                state = DATA;
+            }
+            nameLength = 0;
+        }
+    }
+
+    private void startTag(boolean end) {
+        endTag = end;
+        nameLength = 0;
+        captured = false;
+        capturing = false;
+        state = TAG_NAME;
+    }
+
+    private void endTagName() {
+        tag = OTHER;
+        for (int i = 1; i < NAMES.length; i++) {
+            if (nameEquals(NAMES[i])) {
+                tag = i;
+                break;
+            }
+        }
+        attribute = endTag ? null : ATTRIBUTES[tag];
+    }
+
+    private boolean nameEquals(String s) {
+        if (s.length() != nameLength) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (s.charAt(i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void endAttributeName() {
+        attributeMatches = attributeMatches && attributeLength == attribute.length();
+    }
+
+    private void endAttributeValue() {
+        if (capturing) {
+            capturing = false;
+            captured = true;
+        }
+    }
+
+    private void emitTag() {
+        state = DATA;
+        if (endTag) {
+            return;
+        }
+        switch (tag) {
+            case A:
+                if (captured) {
+                    handler.link(value.toString());
+                }
+                break;
+            case IMG:
+                if (captured) {
+                    handler.image(value.toString());
+                }
+                break;
+            case TITLE:
+                inTitle = !titleDone;
+                title.setLength(0);
+                rawTag = tag;
+                state = RAW_TEXT;
+                break;
+            case SCRIPT:
+            case STYLE:
+                rawTag = tag;
+                state = RAW_TEXT;
+                break;
+            default:
+        }
+    }
+
+    /**
+     * Matches closing tag of the current raw text element.
+     */
+    private boolean rawTextEnd(char c) {
+        String closing = NAMES[rawTag];
+        if (pendingLength == 0 ? c == '/' : pendingLength <= closing.length() && toLower(c) == closing.charAt(pendingLength - 1)) {
+            pending[pendingLength++] = c;
+            return true;
+        }
+        if (pendingLength == closing.length() + 1 && (isSpace(c) || c == '/' || c == '>')) {
+            if (inTitle) {
+                inTitle = false;
+                titleDone = true;
+                handler.title(title.toString());
+            }
+            state = c == '>' ? DATA : BOGUS;
+            return true;
+        }
+        if (inTitle) {
+            title.append('<').append(pending, 0, pendingLength);
+        }
+        state = RAW_TEXT;
+        return false;
+    }
+
+    private void startEntity(StringBuilder sink) {
+        entityReturn = state;
+        entitySink = sink;
+        entityLength = 0;
+        state = ENTITY;
+    }
+
+    private boolean entity(char c) {
+        if (c == ';') {
+            state = entityReturn;
+            for (int i = 0; i < ENTITIES.length; i++) {
+                if (entityEquals(ENTITIES[i])) {
+                    entitySink.append(ENTITY_CHARS[i]);
+                    return true;
+                }
+            }
+            entitySink.append('&').append(entity, 0, entityLength).append(';');
+            return true;
+        }
+        if (entityLength < entity.length && (isLetter(c) || c >= '0' && c <= '9' || c == '#')) {
+            entity[entityLength++] = c;
+            return true;
+        }
+        entitySink.append('&').append(entity, 0, entityLength);
+        state = entityReturn;
+        return false;
+    }
+
+    private boolean entityEquals(String s) {
+        if (s.length() != entityLength) {
+            return false;
+        }
+        for (int i = 0; i < entityLength; i++) {
+            if (s.charAt(i) != entity[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+
+    private static char toLower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
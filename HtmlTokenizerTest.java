@@ -0,0 +1,120 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests {@link HtmlTokenizer} on fragments fed whole and one character at a time.
+ */
+public class HtmlTokenizerTest {
+    private static final TestCounter COUNTER = new TestCounter();
+
+    public static void main(String[] args) {
+        test("Title",
+                "<html><head><TITLE>Hello, world</TITLE></head></html>",
+                "title Hello, world");
+        test("Title with markup",
+                "<title>a <b>bold</b> </title  ><title>Second</title>",
+                "title a <b>bold</b> ");
+        test("Title with newlines",
+                "<title>\n  Two\n  lines\n</title>",
+                "title \n  Two\n  lines\n");
+        test("Entities",
+                "<title>&lt;&gt;&amp;&mdash;&nbsp;</title>",
+                "title <>&\u2014\u00A0");
+        test("Entities are decoded once",
+                "<title>&amp;nbsp; &amp;amp;</title>",
+                "title &nbsp; &amp;");
+        test("Unknown entities",
+                "<title>&copy; &#169; a & b &lt</title>",
+                "title &copy; &#169; a & b &lt");
+        test("Attribute entities",
+                "<a href=\"page?a=1&amp;b=2&c=3\">link</a>",
+                "link page?a=1&b=2&c=3");
+        test("Quotes",
+                "<a href=\"double\"></a><a href='single'></a><a href=unquoted></a><a href=last>",
+                "link double", "link single", "link unquoted", "link last");
+        test("Quoted markup",
+                "<a title='a > b' href=\"x'y>z\"></a><img alt=\"<a href='no'>\" src='image.png'>",
+                "link x'y>z", "image image.png");
+        test("Attribute names",
+                "<A HREF = \"upper\"><a hreflang=\"en\" href=\"second\"><a data-href=\"no\"><a href>",
+                "link upper", "link second");
+        test("First attribute",
+                "<a href=\"first\" href=\"second\"><img src=1 src=2>",
+                "link first", "image 1");
+        test("Self-closing",
+                "<img src=\"a.png\"/><img/src=\"b.png\"><img src=c.png />",
+                "image a.png", "image b.png", "image c.png");
+        test("Tag names",
+                "<abbr href=\"no\"><image src=\"no\"><imgs src=\"no\"><a\nhref=\"yes\">",
+                "link yes");
+        test("End tags",
+                "</a href=\"no\"><a href=\"yes\"></a >",
+                "link yes");
+        test("Comments",
+                "<!-- <a href=\"no\"> --><a href=\"1\"><!----><!-- - -- ---><a href=\"2\"><!--\n<title>no</title>\n-->",
+                "link 1", "link 2");
+        test("Comment in title",
+                "<title>a <!-- b --> c</title>",
+                "title a <!-- b --> c");
+        test("Declarations",
+                "<!DOCTYPE html><?xml version=\"1.0\"?><! bogus <a href=\"no\"><a href=\"yes\">",
+                "link yes");
+        test("Script",
+                "<script>var s = \"<a href='no'>\"; if (a < b) {}</script><a href=\"yes\">",
+                "link yes");
+        test("Script end",
+                "<script type=\"text/javascript\">document.write(\"</scr\" + \"ipt>\")</SCRIPT >x<a href=\"yes\">",
+                "link yes");
+        test("Style",
+                "<style>a[href=\"no\"] > img {}</style><img src=\"yes\">",
+                "image yes");
+        test("Not a tag",
+                "a < b <1 <a href=\"yes\"> <= <",
+                "link yes");
+        COUNTER.printStatus(HtmlTokenizerTest.class);
+    }
+
+    private static void test(String name, String html, String... expected) {
+        COUNTER.nextTest();
+        System.err.println("=== Testing " + name);
+        List<String> whole = tokenize(html, html.length());
+        Asserts.assertEquals("Tokens of " + html, Arrays.asList(expected), whole);
+        Asserts.assertEquals("Tokens of " + html + " fed by character", whole, tokenize(html, 1));
+        COUNTER.passed();
+    }
+
+    /**
+     * Feeds the HTML in chunks of the given size and returns the reported values.
+     */
+    private static List<String> tokenize(String html, int chunk) {
+        List<String> tokens = new ArrayList<>();
+        HtmlTokenizer tokenizer = new HtmlTokenizer(new HtmlTokenizer.Handler() {
+            @Override
+            public void title(String title) {
+                tokens.add("title " + title);
+            }
+
+            @Override
+            public void image(String src) {
+                tokens.add("image " + src);
+            }
+
+            @Override
+            public void link(String href) {
+                tokens.add("link " + href);
+            }
+        });
+        char[] chars = html.toCharArray();
+        for (int i = 0; i < chars.length; i += chunk) {
+            tokenizer.feed(chars, i, Math.min(chunk, chars.length - i));
+        }
+        tokenizer.finish();
+        return tokens;
+    }
+}
@@ -0,0 +1,357 @@
+package crawler;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Downloads pages over HTTP.
+ * <p>
+ * All downloads go through one {@link HttpClient} preferring HTTP/2, so concurrent downloads
+ * from a host supporting it are multiplexed over a single connection; HTTP/1.1 connections
+ * are kept alive and reused as long as the returned streams are read to the end.
+ * Responses are requested with gzip or deflate transfer compression and decoded on the fly;
+ * returned streams are {@link TypedStream}s reporting the {@code Content-Type} of the response.
+ * Bodies are streamed, never buffered as a whole; a body exceeding the size limit fails
+ * with {@link IOException}. Server errors, timeouts and throttling responses fail
+ * with {@link TransientIOException}.
+ * Instances are thread-safe.
+ */
+public class HttpDownloader implements Downloader {
+    private static final int CONNECT_TIMEOUT = 10_000;
+    private static final int READ_TIMEOUT = 30_000;
+    private static final long MAX_RESPONSE_SIZE = 64L << 20;
+    private static final int DRAIN_SIZE = 64 << 10;
+
+    private final HttpClient client;
+    private final int readTimeout;
+    private final long maxResponseSize;
+
+    public HttpDownloader() {
+        this(CONNECT_TIMEOUT, READ_TIMEOUT, MAX_RESPONSE_SIZE);
+    }
+
+    /**
+     * Creates downloader with the given limits.
+     *
+     * @param connectTimeout connect timeout in milliseconds, {@code 0} for none
+     * @param readTimeout timeout in milliseconds of waiting for the response headers
+     *                    and for each part of the body, {@code 0} for none
+     * @param maxResponseSize maximal size of a decoded response body in bytes
+     */
+    public HttpDownloader(int connectTimeout, int readTimeout, long maxResponseSize) {
+        if (connectTimeout < 0 || readTimeout < 0 || maxResponseSize < 0) {
+            throw new IllegalArgumentException("Timeouts and size limit should be non-negative");
+        }
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL);
+        if (connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeout));
+        }
+        this.client = builder.build();
+        this.readTimeout = readTimeout;
+        this.maxResponseSize = maxResponseSize;
+    }
+
+    @Override
+    public InputStream download(String url) throws IOException {
+        HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(new URI(url)).header("Accept-Encoding", "gzip, deflate");
+        } catch (Exception e) {
+            throw new IOException("Not an HTTP URL " + url, e);
+        }
+        if (readTimeout > 0) {
+            request.timeout(Duration.ofMillis(readTimeout));
+        }
+
+        HttpResponse<BodyStream> response;
+        try {
+            response = client.send(request.build(), info -> info.statusCode() / 100 == 2
+                    ? new BodyStream(readTimeout)
+                    : HttpResponse.BodySubscribers.replacing(null));
+        } catch (HttpTimeoutException e) {
+            throw new TransientIOException("Timed out downloading " + url + ": " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted downloading " + url);
+        }
+
+        int status = response.statusCode();
+        if (status / 100 != 2) {
+            String message = "HTTP " + status + " for " + url;
+            if (status / 100 == 5 || status == 408 || status == 429) {
+                throw new TransientIOException(message);
+            }
+            throw new IOException(message);
+        }
+        BodyStream body = response.body();
+        InputStream is = body;
+        try {
+            String encoding = response.headers().firstValue("Content-Encoding").orElse(null);
+            long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+            if (encoding == null && length > maxResponseSize) {
+                throw new IOException("Response for " + url + " is too large: " + length + " bytes");
+            }
+            if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+                is = new GZIPInputStream(is);
+            } else if ("deflate".equalsIgnoreCase(encoding)) {
+                is = inflate(is);
+            } else if (encoding != null && !"identity".equalsIgnoreCase(encoding)) {
+                throw new IOException("Unsupported content encoding " + encoding + " for " + url);
+            }
+        } catch (IOException e) {
+            is.close();
+            throw e;
+        }
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        return new LimitedInputStream(is, body, maxResponseSize, url, contentType);
+    }
+
+    /**
+     * Decodes {@code deflate} content, which servers send either zlib-wrapped or raw.
+     */
+    private static InputStream inflate(InputStream is) throws IOException {
+        InputStream buffered = is.markSupported() ? is : new BufferedInputStream(is);
+        buffered.mark(2);
+        int cmf = buffered.read();
+        int flg = buffered.read();
+        buffered.reset();
+        boolean zlib = cmf >= 0 && flg >= 0 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+        return new InflaterInputStream(buffered, new Inflater(!zlib)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inf.end();
+            }
+        };
+    }
+
+    /**
+     * Response body read as it arrives, one part at a time, waiting for each part at most the read timeout.
+     * Closing the stream before the end cancels the response.
+     */
+    private static class BodyStream extends InputStream implements HttpResponse.BodySubscriber<BodyStream> {
+        private static final Object END = new Object();
+
+        private final LinkedBlockingQueue<Object> parts = new LinkedBlockingQueue<>();
+        private final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+        private final long readTimeout;
+        private Iterator<ByteBuffer> buffers;
+        private ByteBuffer buffer;
+        private boolean done;
+
+        private BodyStream(long readTimeout) {
+            this.readTimeout = readTimeout;
+        }
+
+        @Override
+        public CompletionStage<BodyStream> getBody() {
+            return CompletableFuture.completedFuture(this);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (this.subscription.complete(subscription)) {
+                subscription.request(1);
+            } else {
+                subscription.cancel();
+            }
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            parts.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            parts.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            parts.add(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return next() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!next()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer == null ? 0 : buffer.remaining();
+        }
+
+        /**
+         * Makes {@link #buffer} non-empty, returns {@code false} at the end of the body.
+         */
+        @SuppressWarnings("unchecked")
+        private boolean next() throws IOException {
+            while (buffer == null || !buffer.hasRemaining()) {
+                if (buffers != null && buffers.hasNext()) {
+                    buffer = buffers.next();
+                    continue;
+                }
+                if (done) {
+                    return false;
+                }
+                if (buffers != null) {
+                    buffers = null;
+                    subscription.join().request(1);
+                }
+                Object part = poll();
+                if (part == END) {
+                    done = true;
+                } else if (part instanceof Throwable) {
+                    done = true;
+                    Throwable error = (Throwable) part;
+                    throw error instanceof IOException ? (IOException) error : new IOException(error);
+                } else {
+                    buffers = ((List<ByteBuffer>) part).iterator();
+                }
+            }
+            return true;
+        }
+
+        private Object poll() throws IOException {
+            try {
+                Object part = readTimeout > 0 ? parts.poll(readTimeout, TimeUnit.MILLISECONDS) : parts.take();
+                if (part == null) {
+                    close();
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                return part;
+            } catch (InterruptedException e) {
+                close();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        /**
+         * Reads the rest of the body after the end of the compressed content, so that the connection may be reused.
+         */
+        private void drain() {
+            try {
+                long total = 0;
+                while (total < DRAIN_SIZE && next()) {
+                    total += buffer.remaining();
+                    buffer = null;
+                }
+            } catch (IOException ignored) {
+                // Connection will not be reused
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                buffers = null;
+                buffer = null;
+                subscription.thenAccept(Flow.Subscription::cancel);
+            }
+        }
+    }
+
+    /**
+     * Fails when more than the given number of bytes is read, drains the body at the end of the decoded content.
+     */
+    private static class LimitedInputStream extends FilterInputStream implements TypedStream {
+        private final BodyStream body;
+        private final long limit;
+        private final String url;
+        private final String contentType;
+        private long read;
+
+        private LimitedInputStream(InputStream in, BodyStream body, long limit, String url, String contentType) {
+            super(in);
+            this.body = body;
+            this.limit = limit;
+            this.url = url;
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count(1);
+            } else {
+                body.drain();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            } else if (n < 0) {
+                body.drain();
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long n) throws IOException {
+            read += n;
+            if (read > limit) {
+                throw new IOException("Response for " + url + " exceeds " + limit + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests {@link HttpDownloader} against a local HTTP server.
+ */
+public class HttpDownloaderTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final String BODY = "<html><head><title>Hello</title></head><body>Hello, world!</body></html>";
+    private static final Set<Integer> clientPorts = Collections.synchronizedSet(new HashSet<>());
+
+    public static void main(String[] args) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        context(server, "/plain", exchange -> respond(exchange, null, BODY.getBytes(StandardCharsets.UTF_8)));
+        context(server, "/gzip", exchange -> respond(exchange, "gzip", gzip(BODY)));
+        context(server, "/deflate", exchange -> respond(exchange, "deflate", deflate(BODY)));
+        context(server, "/typed", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=windows-1251");
+            respond(exchange, "gzip", gzip(BODY));
+        });
+        context(server, "/large", exchange -> respond(exchange, null, new byte[1 << 20]));
+        context(server, "/missing", exchange -> {
+            byte[] body = "Not found".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        context(server, "/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, null, BODY.getBytes(StandardCharsets.UTF_8));
+        });
+        context(server, "/stalled", exchange -> {
+            byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body, 0, body.length / 2);
+                os.flush();
+                Thread.sleep(2000);
+                os.write(body, body.length / 2, body.length - body.length / 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ExecutorService executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+        try {
+            String base = "http://localhost:" + server.getAddress().getPort();
+            HttpDownloader downloader = new HttpDownloader(1000, 500, 1 << 16);
+
+            testBodies(base, downloader);
+            testContentType(base, downloader);
+            testErrors(base, downloader);
+            testConnectionReuse(base);
+            testConcurrentConnectionReuse(base);
+        } finally {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+        COUNTER.printStatus(HttpDownloaderTest.class);
+    }
+
+    private static void testBodies(String base, HttpDownloader downloader) throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing plain and compressed bodies");
+        Asserts.assertEquals("Plain body", BODY, DownloaderTests.readString(downloader, base + "/plain"));
+        Asserts.assertEquals("Gzip body", BODY, DownloaderTests.readString(downloader, base + "/gzip"));
+        Asserts.assertEquals("Deflate body", BODY, DownloaderTests.readString(downloader, base + "/deflate"));
+        COUNTER.passed();
+    }
+
+    private static void testContentType(String base, HttpDownloader downloader) throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing content type");
+        try (InputStream typed = downloader.download(base + "/typed"); InputStream plain = downloader.download(base + "/plain")) {
+            Asserts.assertEquals("Declared type", "text/html; charset=windows-1251", PageReader.contentType(typed));
+            Asserts.assertEquals("Missing type", null, PageReader.contentType(plain));
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks missing and too large pages, read timeouts and bodies stalled in the middle.
+     */
+    private static void testErrors(String base, HttpDownloader downloader) {
+        COUNTER.nextTest();
+        System.err.println("=== Testing errors");
+        DownloaderTests.assertFails(downloader, base + "/missing");
+        DownloaderTests.assertFails(downloader, base + "/large");
+        DownloaderTests.assertFails(downloader, base + "/slow");
+        DownloaderTests.assertFails(downloader, base + "/stalled");
+        COUNTER.passed();
+    }
+
+    private static void testConnectionReuse(String base) throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing connection reuse");
+        HttpDownloader fresh = new HttpDownloader(1000, 500, 1 << 16);
+        clientPorts.clear();
+        for (int i = 0; i < 5; i++) {
+            DownloaderTests.readString(fresh, base + "/plain");
+            DownloaderTests.readString(fresh, base + "/gzip");
+            DownloaderTests.assertFails(fresh, base + "/missing");
+            DownloaderTests.readString(fresh, base + "/deflate");
+        }
+        Asserts.assertEquals("Connections", 1, clientPorts.size());
+        COUNTER.passed();
+    }
+
+    private static void testConcurrentConnectionReuse(String base) {
+        COUNTER.nextTest();
+        System.err.println("=== Testing concurrent connection reuse");
+        HttpDownloader fresh = new HttpDownloader(1000, 500, 1 << 16);
+        clientPorts.clear();
+        ExecutorService clients = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> downloads = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                downloads.add(clients.submit(() -> DownloaderTests.readString(fresh, base + "/plain")));
+            }
+            for (Future<?> download : downloads) {
+                download.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError(e);
+        } finally {
+            clients.shutdownNow();
+        }
+        Asserts.assertTrue("Connections " + clientPorts.size(), clientPorts.size() <= 8);
+        COUNTER.passed();
+    }
+
+    /**
+     * Handles the path, recording the client port as soon as the request arrives,
+     * so late responses to timed-out requests do not count towards later tests.
+     */
+    private static void context(HttpServer server, String path, HttpHandler handler) {
+        server.createContext(path, exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            handler.handle(exchange);
+        });
+    }
+
+    private static void respond(HttpExchange exchange, String encoding, byte[] body) throws IOException {
+        if (encoding != null) {
+            exchange.getResponseHeaders().set("Content-Encoding", encoding);
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+        }
+    }
+
+    private static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream os = new GZIPOutputStream(bytes)) {
+            os.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] deflate(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream os = new DeflaterOutputStream(bytes)) {
+            os.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -1,5 +1,7 @@
 package crawler;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -8,13 +10,28 @@ import java.util.List;
  * @author Georgiy Korneev (kgeorgiy@kgeorgiy.info)
  */
 public class Image implements Serializable {
+    private static final long serialVersionUID = 6979729413645282682L;
+
     private final String url;
     private final String file;
-    private final List<Page> pages = new ArrayList<>();
+    private List<Page> pages;
+    private transient LinkGraph graph;
+    private transient int index;
 
     public Image(final String url, final String file) {
         this.url = url;
         this.file = file;
+        this.pages = new ArrayList<>();
+    }
+
+    /**
+     * Creates a view of the image stored in the graph.
+     */
+    Image(final LinkGraph graph, final int index) {
+        this.url = graph.imageUrl(index);
+        this.file = graph.file(index);
+        this.graph = graph;
+        this.index = index;
     }
 
     public String getUrl() {
@@ -26,6 +43,22 @@ public class Image implements Serializable {
     }
 
     public List<Page> getPages() {
-        return pages;
+        final LinkGraph graph = this.graph;
+        return graph == null ? pages : graph.imagePages(index);
+    }
+
+    /**
+     * Copies pages out of the graph, so that they can be modified.
+     */
+    synchronized void detach() {
+        if (graph != null) {
+            pages = new ArrayList<>(graph.imagePages(index));
+            graph = null;
+        }
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        detach();
+        out.defaultWriteObject();
     }
 }
@@ -0,0 +1,166 @@
+package crawler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+/**
+ * Downloads images on its own bounded worker pool, so that crawling goes on while images are fetched.
+ * When the queue is full, the submitting thread downloads the image itself.
+ * <p>
+ * With a {@link CrawlListener}, finished downloads are not kept for the graph,
+ * but reported to the listener by {@link #drain()} on the crawling thread.
+ * Downloads still pending at the deadline given to {@link #complete} are cancelled.
+ */
+class ImagePipeline implements AutoCloseable {
+    private final Downloader downloader;
+    private final Path directory;
+    private final CrawlLog log;
+    private final CrawlListener listener;
+    private final CrawlMetrics metrics;
+    private final ExecutorService workers;
+    private final List<Download> downloads = new ArrayList<>();
+    private final Queue<String[]> stored = new ConcurrentLinkedQueue<>();
+    private volatile boolean cancelled;
+
+    private static class Download {
+        private final int id;
+        private final Future<String> file;
+
+        private Download(int id, Future<String> file) {
+            this.id = id;
+            this.file = file;
+        }
+    }
+
+    /**
+     * Creates a pipeline, logging finished downloads to {@code log} unless it is {@code null}.
+     *
+     * @param listener listener to report stored images to, {@code null} to store them in the graph
+     * @param metrics metrics to record image downloads in
+     */
+    ImagePipeline(Downloader downloader, Path directory, int threads, int queueSize, CrawlLog log, CrawlListener listener, CrawlMetrics metrics) {
+        this.downloader = downloader;
+        this.directory = directory;
+        this.log = log;
+        this.listener = listener;
+        this.metrics = metrics;
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Starts download of the image with the given URL id.
+     */
+    public void submit(int id, String url) {
+        Future<String> file = workers.submit(() -> {
+            String result = SimpleWebCrawler.downloadImage(downloader, url, directory, metrics);
+            if (cancelled) {
+                return null;
+            }
+            if (log != null) {
+                try {
+                    log.image(url, result);
+                } catch (IOException e) {
+                    Logger.log("Cannot write checkpoint: " + e.getMessage());
+                }
+            }
+            if (listener != null && result != null) {
+                stored.add(new String[]{url, result});
+            }
+            return result;
+        });
+        if (listener == null) {
+            downloads.add(new Download(id, file));
+        }
+    }
+
+    /**
+     * Adds an image downloaded earlier, {@code file} is {@code null} if download failed.
+     */
+    public void add(int id, String url, String file) {
+        if (listener == null) {
+            downloads.add(new Download(id, CompletableFuture.completedFuture(file)));
+        } else if (file != null) {
+            stored.add(new String[]{url, file});
+        }
+    }
+
+    /**
+     * Reports images stored since the previous call to the listener.
+     */
+    public void drain() {
+        String[] image;
+        while ((image = stored.poll()) != null) {
+            listener.imageStored(image[0], image[1]);
+        }
+    }
+
+    /**
+     * Waits for the outstanding downloads until the deadline and stores their files in the graph,
+     * or reports them to the listener.
+     * Images that could not be downloaded are removed from the graph,
+     * images cancelled at the deadline are kept without a file.
+     *
+     * @param deadline {@link System#nanoTime()} to cancel downloads at
+     * @return whether all downloads finished before the deadline
+     */
+    public boolean complete(LinkGraph graph, long deadline) {
+        try {
+            if (listener != null) {
+                workers.shutdown();
+                while (!workers.awaitTermination(Math.min(100_000_000, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    drain();
+                    if (deadline - System.nanoTime() <= 0) {
+                        cancel();
+                        break;
+                    }
+                }
+                drain();
+                return !cancelled;
+            }
+            for (Download download : downloads) {
+                String file = null;
+                try {
+                    file = download.file.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    Logger.log("Image download failed: " + e.getCause());
+                } catch (TimeoutException | CancellationException e) {
+                    cancel();
+                    continue;
+                }
+                if (file == null) {
+                    graph.removeImage(download.id);
+                } else {
+                    graph.putImage(download.id, file);
+                }
+            }
+            downloads.clear();
+            return !cancelled;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for images", e);
+        }
+    }
+
+    /**
+     * Cancels pending downloads, images stored after this call are neither logged nor reported.
+     */
+    public void cancel() {
+        if (!cancelled) {
+            cancelled = true;
+            workers.shutdownNow();
+            for (Download download : downloads) {
+                download.file.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,65 @@
+package crawler;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of durations with power-of-two buckets.
+ * Recording costs a few atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(value | 1));
+        count.increment();
+        total.add(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long totalNanos() {
+        return total.sum();
+    }
+
+    public double meanNanos() {
+        long count = count();
+        return count == 0 ? 0 : (double) totalNanos() / count;
+    }
+
+    /**
+     * Returns an upper bound of the given quantile, accurate within a factor of two.
+     *
+     * @param quantile quantile in range {@code [0, 1]}
+     */
+    public long quantileNanos(double quantile) {
+        long[] counts = new long[buckets.length()];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return i == 62 ? Long.MAX_VALUE : (2L << i) - 1;
+            }
+        }
+        return 0;
+    }
+
+    public void reset() {
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+    }
+}
@@ -0,0 +1,295 @@
+package crawler;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pages and images of a crawl with the links between them, stored as compressed sparse rows.
+ * <p>
+ * Pages are added in visit order, each followed by its links and images.
+ * After {@link #build()}, {@link Page} and {@link Image} objects are created on demand
+ * as views over the arrays; forward links and back-links keep the order
+ * a sequential crawl would produce.
+ */
+class LinkGraph {
+    private final UrlRegistry urls;
+
+    private int[] pageIndexes = new int[0];
+    private int[] pageIds = new int[16];
+    private String[] titles = new String[16];
+    private int pages;
+
+    private int[] linkOffsets = new int[17];
+    private final IntList links = new IntList();
+    private int[] imageOffsets = new int[17];
+    private final IntList pageImages = new IntList();
+
+    private int[] imageIndexes = new int[0];
+    private int[] imageIds = new int[16];
+    private String[] files = new String[16];
+    private int images;
+    private final BitSet removedImages = new BitSet();
+
+    private int[] linkTargets;
+    private int[] backLinkOffsets;
+    private int[] backLinks;
+    private int[] imagePageOffsets;
+    private int[] imagePages;
+    private AtomicReferenceArray<Page> pageViews;
+    private AtomicReferenceArray<Image> imageViews;
+
+    LinkGraph(UrlRegistry urls) {
+        this.urls = urls;
+    }
+
+    UrlRegistry urls() {
+        return urls;
+    }
+
+    /**
+     * Returns whether a page with the given URL id was added.
+     */
+    public boolean containsPage(int id) {
+        return id < pageIndexes.length && pageIndexes[id] >= 0;
+    }
+
+    /**
+     * Appends a page; subsequent links and images belong to it.
+     */
+    public void addPage(int id, String title) {
+        pageIndexes = ensureIndex(pageIndexes, id);
+        if (pages == pageIds.length) {
+            pageIds = Arrays.copyOf(pageIds, pages * 2);
+            titles = Arrays.copyOf(titles, pages * 2);
+            linkOffsets = Arrays.copyOf(linkOffsets, pages * 2 + 1);
+            imageOffsets = Arrays.copyOf(imageOffsets, pages * 2 + 1);
+        }
+        pageIndexes[id] = pages;
+        pageIds[pages] = id;
+        titles[pages] = title;
+        pages++;
+        linkOffsets[pages] = links.size();
+        imageOffsets[pages] = pageImages.size();
+    }
+
+    /**
+     * Adds a link from the last page to the page with the given URL id.
+     * Links to URLs that do not become pages are ignored.
+     */
+    public void addLink(int id) {
+        links.add(id);
+        linkOffsets[pages] = links.size();
+    }
+
+    /**
+     * Returns whether an image with the given URL id was stored.
+     */
+    public boolean containsImage(int id) {
+        return id < imageIndexes.length && imageIndexes[id] >= 0;
+    }
+
+    public void putImage(int id, String file) {
+        imageIndexes = ensureIndex(imageIndexes, id);
+        if (imageIndexes[id] < 0) {
+            if (images == imageIds.length) {
+                imageIds = Arrays.copyOf(imageIds, imageIds.length * 2);
+                files = Arrays.copyOf(files, files.length * 2);
+            }
+            imageIndexes[id] = images;
+            imageIds[images] = id;
+            images++;
+        }
+        files[imageIndexes[id]] = file;
+    }
+
+    /**
+     * Removes the stored image from all pages.
+     */
+    public void removeImage(int id) {
+        removedImages.set(imageIndexes[id]);
+    }
+
+    /**
+     * Adds a stored image to the last page.
+     */
+    public void addImage(int id) {
+        pageImages.add(imageIndexes[id]);
+        imageOffsets[pages] = pageImages.size();
+    }
+
+    private static int[] ensureIndex(int[] indexes, int id) {
+        if (id < indexes.length) {
+            return indexes;
+        }
+        int[] result = Arrays.copyOf(indexes, Math.max(id + 1, indexes.length * 2));
+        Arrays.fill(result, indexes.length, result.length, -1);
+        return result;
+    }
+
+    /**
+     * Completes the graph: resolves links and computes back-links.
+     */
+    public void build() {
+        int[] targets = new int[links.size()];
+        int[] inDegrees = new int[pages + 1];
+        int edges = 0;
+        for (int page = 0; page < pages; page++) {
+            int from = linkOffsets[page];
+            linkOffsets[page] = edges;
+            for (int i = from; i < linkOffsets[page + 1]; i++) {
+                int id = links.get(i);
+                if (containsPage(id)) {
+                    targets[edges++] = pageIndexes[id];
+                    inDegrees[pageIndexes[id] + 1]++;
+                }
+            }
+        }
+        linkOffsets[pages] = edges;
+        int[] forward = Arrays.copyOf(targets, edges);
+
+        backLinkOffsets = prefixSums(inDegrees);
+        backLinks = new int[edges];
+        int[] cursors = Arrays.copyOf(backLinkOffsets, pages);
+        for (int page = pages - 1; page >= 0; page--) {
+            for (int i = linkOffsets[page]; i < linkOffsets[page + 1]; i++) {
+                backLinks[cursors[forward[i]]++] = page;
+            }
+        }
+
+        int[] imageDegrees = new int[images + 1];
+        int kept = 0;
+        for (int page = 0; page < pages; page++) {
+            int from = imageOffsets[page];
+            imageOffsets[page] = kept;
+            for (int i = from; i < imageOffsets[page + 1]; i++) {
+                int image = pageImages.get(i);
+                if (!removedImages.get(image)) {
+                    pageImages.set(kept++, image);
+                    imageDegrees[image + 1]++;
+                }
+            }
+        }
+        imageOffsets[pages] = kept;
+        imagePageOffsets = prefixSums(imageDegrees);
+        imagePages = new int[kept];
+        cursors = Arrays.copyOf(imagePageOffsets, images);
+        for (int page = 0; page < pages; page++) {
+            for (int i = imageOffsets[page]; i < imageOffsets[page + 1]; i++) {
+                imagePages[cursors[pageImages.get(i)]++] = page;
+            }
+        }
+
+        linkTargets = forward;
+        pageViews = new AtomicReferenceArray<>(pages);
+        imageViews = new AtomicReferenceArray<>(images);
+    }
+
+    private static int[] prefixSums(int[] degrees) {
+        for (int i = 1; i < degrees.length; i++) {
+            degrees[i] += degrees[i - 1];
+        }
+        return degrees;
+    }
+
+    /**
+     * Returns page with the given URL id or {@code null} if there is no such page.
+     */
+    public Page pageById(int id) {
+        return containsPage(id) ? page(pageIndexes[id]) : null;
+    }
+
+    Page page(int index) {
+        Page page = pageViews.get(index);
+        if (page == null) {
+            pageViews.compareAndSet(index, null, new Page(this, index));
+            page = pageViews.get(index);
+        }
+        return page;
+    }
+
+    Image image(int index) {
+        Image image = imageViews.get(index);
+        if (image == null) {
+            imageViews.compareAndSet(index, null, new Image(this, index));
+            image = imageViews.get(index);
+        }
+        return image;
+    }
+
+    String pageUrl(int index) {
+        return urls.url(pageIds[index]);
+    }
+
+    String title(int index) {
+        return titles[index];
+    }
+
+    String imageUrl(int index) {
+        return urls.url(imageIds[index]);
+    }
+
+    String file(int index) {
+        return files[index];
+    }
+
+    List<Page> links(int index) {
+        return new PageList(linkTargets, linkOffsets[index], linkOffsets[index + 1]);
+    }
+
+    List<Page> backLinks(int index) {
+        return new PageList(backLinks, backLinkOffsets[index], backLinkOffsets[index + 1]);
+    }
+
+    List<Page> imagePages(int index) {
+        return new PageList(imagePages, imagePageOffsets[index], imagePageOffsets[index + 1]);
+    }
+
+    List<Image> images(int index) {
+        int from = imageOffsets[index];
+        int size = imageOffsets[index + 1] - from;
+        return new AbstractList<Image>() {
+            @Override
+            public Image get(int i) {
+                checkIndex(i, size);
+                return image(pageImages.get(from + i));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class PageList extends AbstractList<Page> {
+        private final int[] targets;
+        private final int from;
+        private final int size;
+
+        private PageList(int[] targets, int from, int to) {
+            this.targets = targets;
+            this.from = from;
+            this.size = to - from;
+        }
+
+        @Override
+        public Page get(int i) {
+            checkIndex(i, size);
+            return page(targets[from + i]);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package crawler;
+
+/**
+ * Destination of the crawler diagnostic messages, {@code System.out} by default.
+ */
+public final class Logger {
+    /**
+     * Receives diagnostic messages; may be called concurrently.
+     */
+    public interface Listener {
+        void message(String message);
+    }
+
+    private static volatile Listener listener = message -> System.out.println(message);
+
+    private Logger() {
+    }
+
+    /**
+     * Sets the listener receiving messages; a listener ignoring them turns logging off.
+     */
+    public static void setListener(Listener listener) {
+        Logger.listener = listener;
+    }
+
+    public static void log(String message) {
+        listener.message(message);
+    }
+}
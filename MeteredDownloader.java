@@ -0,0 +1,151 @@
+package crawler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Records download latencies, per stage and per host, and emits {@link FetchEvent}s.
+ * A download lasts from the request until its body is closed,
+ * but only the time spent waiting for the downloader is counted.
+ * A download to a file lasts until the file is written.
+ */
+class MeteredDownloader implements Downloader {
+    private final Downloader downloader;
+    private final CrawlMetrics metrics;
+
+    MeteredDownloader(Downloader downloader, CrawlMetrics metrics) {
+        this.downloader = downloader;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public InputStream download(String url) throws IOException {
+        FetchEvent event = new FetchEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            return new Body(downloader.download(url), url, event, System.nanoTime() - start);
+        } catch (IOException e) {
+            record(url, System.nanoTime() - start, event, 0, e.getMessage());
+            throw e;
+        }
+    }
+
+    @Override
+    public void downloadTo(String url, Path file) throws IOException {
+        FetchEvent event = new FetchEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            downloader.downloadTo(url, file);
+        } catch (IOException e) {
+            record(url, System.nanoTime() - start, event, 0, e.getMessage());
+            throw e;
+        }
+        record(url, System.nanoTime() - start, event, Files.size(file), null);
+    }
+
+    @Override
+    public long identity(String url) throws IOException {
+        return downloader.identity(url);
+    }
+
+    private void record(String url, long nanos, FetchEvent event, long bytes, String error) {
+        String host = host(url);
+        metrics.record(CrawlMetrics.Stage.DOWNLOAD, nanos);
+        metrics.host(host).record(nanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.url = url;
+            event.host = host;
+            event.bytes = bytes;
+            event.error = error;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns host part of an absolute URL without parsing it.
+     */
+    static String host(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && "/?#:".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        return url.substring(start, end);
+    }
+
+    /**
+     * Body of a download, counting time spent in reads.
+     */
+    class Body extends FilterInputStream implements TypedStream {
+        private final String url;
+        private final FetchEvent event;
+        private final long openNanos;
+        private long readNanos;
+        private long bytes;
+        private boolean closed;
+
+        private Body(InputStream in, String url, FetchEvent event, long openNanos) {
+            super(in);
+            this.url = url;
+            this.event = event;
+            this.openNanos = openNanos;
+        }
+
+        /**
+         * Returns time spent reading the body so far.
+         */
+        long readNanos() {
+            return readNanos;
+        }
+
+        /**
+         * Returns number of bytes read so far.
+         */
+        long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public String contentType() {
+            return in instanceof TypedStream ? ((TypedStream) in).contentType() : null;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            readNanos += System.nanoTime() - start;
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(b, off, len);
+            readNanos += System.nanoTime() - start;
+            if (read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                record(url, openNanos + readNanos, event, bytes, null);
+            }
+            super.close();
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package crawler;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
@@ -8,15 +10,32 @@ import java.util.List;
  * @author Georgiy Korneev (kgeorgiy@kgeorgiy.info)
  */
 public class Page implements Serializable {
+    private static final long serialVersionUID = -46585772912209195L;
+
     private final String url;
     private final String title;
-    private final List<Page> links = new ArrayList<>();
-    private final List<Page> backLinks = new ArrayList<>();
-    private final List<Image> images = new ArrayList<>();
+    private List<Page> links;
+    private List<Page> backLinks;
+    private List<Image> images;
+    private transient LinkGraph graph;
+    private transient int index;
 
     public Page(final String url, final String title) {
         this.url = url;
         this.title = title;
+        this.links = new ArrayList<>();
+        this.backLinks = new ArrayList<>();
+        this.images = new ArrayList<>();
+    }
+
+    /**
+     * Creates a view of the page stored in the graph.
+     */
+    Page(final LinkGraph graph, final int index) {
+        this.url = graph.pageUrl(index);
+        this.title = graph.title(index);
+        this.graph = graph;
+        this.index = index;
     }
 
     public String getUrl() {
@@ -28,24 +47,48 @@ public class Page implements Serializable {
     }
 
     public List<Page> getLinks() {
-        return links;
+        final LinkGraph graph = this.graph;
+        return graph == null ? links : graph.links(index);
     }
 
     public List<Page> getBackLinks() {
-        return backLinks;
+        final LinkGraph graph = this.graph;
+        return graph == null ? backLinks : graph.backLinks(index);
     }
 
     public List<Image> getImages() {
-        return images;
+        final LinkGraph graph = this.graph;
+        return graph == null ? images : graph.images(index);
     }
 
     public void addImage(final Image image) {
+        detach();
+        image.detach();
         images.add(image);
         image.getPages().add(this);
     }
 
     public void addLink(final Page other) {
+        detach();
+        other.detach();
         links.add(other);
         other.backLinks.add(this);
     }
+
+    /**
+     * Copies links and images out of the graph, so that they can be modified.
+     */
+    synchronized void detach() {
+        if (graph != null) {
+            links = new ArrayList<>(graph.links(index));
+            backLinks = new ArrayList<>(graph.backLinks(index));
+            images = new ArrayList<>(graph.images(index));
+            graph = null;
+        }
+    }
+
+    private void writeObject(final ObjectOutputStream out) throws IOException {
+        detach();
+        out.defaultWriteObject();
+    }
 }
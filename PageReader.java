@@ -0,0 +1,215 @@
+package crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes downloaded pages into the {@link HtmlTokenizer} through fixed-size reusable buffers.
+ * Charset is detected from the byte order mark, the charset of the {@code Content-Type}
+ * or the {@code <meta>} charset declaration, in this order of precedence;
+ * pages longer than the maximal page size are truncated. Instances are not thread-safe.
+ */
+class PageReader {
+    /**
+     * Number of leading bytes examined for the charset declaration.
+     */
+    private static final int PRESCAN_SIZE = 1024;
+    private static final int BUFFER_SIZE = 1 << 13;
+    private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+
+    private final long maxPageSize;
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final char[] chars = new char[BUFFER_SIZE];
+    private final Map<Charset, CharsetDecoder> decoders = new HashMap<>();
+
+    PageReader(long maxPageSize) {
+        if (maxPageSize <= 0) {
+            throw new IllegalArgumentException("Maximal page size should be positive");
+        }
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Returns the {@code Content-Type} of a {@link TypedStream}, or {@code null}.
+     */
+    static String contentType(InputStream is) {
+        return is instanceof TypedStream ? ((TypedStream) is).contentType() : null;
+    }
+
+    /**
+     * Feeds the page to the tokenizer.
+     *
+     * @param contentType declared {@code Content-Type} of the page, or {@code null}
+     * @return number of bytes read
+     */
+    public long read(InputStream is, String contentType, HtmlTokenizer tokenizer) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        CharBuffer out = CharBuffer.wrap(chars);
+
+        long total = fill(is, in, PRESCAN_SIZE, 0);
+        boolean eof = in.position() < PRESCAN_SIZE;
+        in.flip();
+
+        Charset charset = detectBom(in);
+        if (charset == null) {
+            charset = declared(contentType);
+        }
+        if (charset == null) {
+            charset = prescan(in);
+        }
+        CharsetDecoder decoder = decoders.computeIfAbsent(charset, c -> c.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+        decoder.reset();
+
+        while (true) {
+            CoderResult result = decoder.decode(in, out, eof);
+            feed(out, tokenizer);
+            if (result.isUnderflow()) {
+                if (eof) {
+                    break;
+                }
+                in.compact();
+                int position = in.position();
+                total = fill(is, in, in.capacity(), total);
+                eof = in.position() == position;
+                in.flip();
+            }
+        }
+        decoder.flush(out);
+        feed(out, tokenizer);
+        tokenizer.finish();
+        return total;
+    }
+
+    /**
+     * Reads bytes until the buffer holds {@code target} bytes or the page ends.
+     *
+     * @return total number of bytes read from the page
+     */
+    private long fill(InputStream is, ByteBuffer in, int target, long total) throws IOException {
+        while (in.position() < target && total < maxPageSize) {
+            int read = is.read(bytes, in.position(), (int) Math.min(target - in.position(), maxPageSize - total));
+            if (read < 0) {
+                break;
+            }
+            in.position(in.position() + read);
+            total += read;
+        }
+        return total;
+    }
+
+    private void feed(CharBuffer out, HtmlTokenizer tokenizer) {
+        out.flip();
+        tokenizer.feed(chars, 0, out.remaining());
+        out.clear();
+    }
+
+    private static Charset detectBom(ByteBuffer in) {
+        if (startsWith(in, 0xEF, 0xBB, 0xBF)) {
+            in.position(3);
+            return StandardCharsets.UTF_8;
+        } else if (startsWith(in, 0xFE, 0xFF)) {
+            in.position(2);
+            return StandardCharsets.UTF_16BE;
+        } else if (startsWith(in, 0xFF, 0xFE)) {
+            in.position(2);
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    private static boolean startsWith(ByteBuffer in, int... prefix) {
+        if (in.remaining() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((in.get(i) & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the supported charset parameter of the {@code Content-Type}, or {@code null}.
+     */
+    private static Charset declared(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        for (String parameter : contentType.split(";")) {
+            int equals = parameter.indexOf('=');
+            if (equals >= 0 && parameter.substring(0, equals).trim().equalsIgnoreCase("charset")) {
+                String name = parameter.substring(equals + 1).trim();
+                if (name.length() >= 2 && name.charAt(0) == '"' && name.charAt(name.length() - 1) == '"') {
+                    name = name.substring(1, name.length() - 1);
+                }
+                try {
+                    return Charset.forName(name);
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks for {@code charset=} inside the {@code <meta>} tags of the first bytes of the page.
+     */
+    private static Charset prescan(ByteBuffer in) {
+        int limit = in.limit();
+        for (int i = in.position(); i < limit; i++) {
+            if (in.get(i) != '<' || !matches(in, i + 1, "meta")) {
+                continue;
+            }
+            for (int j = i + 5; j < limit && in.get(j) != '>'; j++) {
+                if (matches(in, j, "charset")) {
+                    return charset(in, j + 7);
+                }
+            }
+        }
+        return DEFAULT_CHARSET;
+    }
+
+    private static boolean matches(ByteBuffer in, int from, String word) {
+        if (from + word.length() > in.limit()) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if ((in.get(from + i) | 0x20) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Charset charset(ByteBuffer in, int from) {
+        int i = from;
+        while (i < in.limit() && (in.get(i) == ' ' || in.get(i) == '=' || in.get(i) == '"' || in.get(i) == '\'')) {
+            i++;
+        }
+        StringBuilder name = new StringBuilder();
+        for (; i < in.limit() && isCharsetChar((char) in.get(i)); i++) {
+            name.append((char) in.get(i));
+        }
+        try {
+            Charset charset = Charset.forName(name.toString());
+            // Pages declaring UTF-16 would have had a byte order mark
+            return charset.name().startsWith("UTF-16") ? DEFAULT_CHARSET : charset;
+        } catch (IllegalArgumentException e) {
+            return DEFAULT_CHARSET;
+        }
+    }
+
+    private static boolean isCharsetChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                || c == '-' || c == '_' || c == '.' || c == ':';
+    }
+}
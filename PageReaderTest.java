@@ -0,0 +1,151 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests charset detection and truncation of {@link PageReader}.
+ */
+public class PageReaderTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final Charset WINDOWS_1251 = Charset.forName("windows-1251");
+    private static final String TITLE = "\u041f\u0440\u0438\u0432\u0435\u0442, \u043c\u0438\u0440";
+
+    public static void main(String[] args) throws IOException {
+        test("No declaration", null, bytes(page(""), StandardCharsets.UTF_8));
+        test("UTF-8 byte order mark", null, bom(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, page(""), StandardCharsets.UTF_8));
+        test("UTF-16BE byte order mark", null, bom(new byte[]{(byte) 0xFE, (byte) 0xFF}, page(""), StandardCharsets.UTF_16BE));
+        test("UTF-16LE byte order mark", null, bom(new byte[]{(byte) 0xFF, (byte) 0xFE}, page(""), StandardCharsets.UTF_16LE));
+        test("Meta charset", null, bytes(page("<meta charset=\"windows-1251\">"), WINDOWS_1251));
+        test("Unquoted meta charset", null, bytes(page("<META CHARSET=windows-1251>"), WINDOWS_1251));
+        test("Meta http-equiv", null, bytes(page("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=windows-1251\">"), WINDOWS_1251));
+        test("Meta UTF-16", null, bytes(page("<meta charset=\"utf-16\">"), StandardCharsets.UTF_8));
+        test("Content-Type", "text/html; charset=windows-1251", bytes(page(""), WINDOWS_1251));
+        test("Quoted Content-Type", "text/html;Charset=\"windows-1251\"", bytes(page(""), WINDOWS_1251));
+        test("Content-Type over meta", "text/html; charset=windows-1251", bytes(page("<meta charset=\"utf-8\">"), WINDOWS_1251));
+        test("Byte order mark over Content-Type", "text/html; charset=windows-1251",
+                bom(new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, page("<meta charset=\"windows-1251\">"), StandardCharsets.UTF_8));
+        test("Unknown Content-Type charset", "text/html; charset=x-unknown", bytes(page("<meta charset=\"windows-1251\">"), WINDOWS_1251));
+        test("Unknown meta charset", null, bytes(page("<meta charset=\"x-unknown\">"), StandardCharsets.UTF_8));
+        test("Content-Type without charset", "text/html", bytes(page("<meta charset=\"windows-1251\">"), WINDOWS_1251));
+        testLateDeclaration();
+        testBufferBoundaries();
+        testTruncation();
+        COUNTER.printStatus(PageReaderTest.class);
+    }
+
+    private static void test(String name, String contentType, byte[] page) throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing " + name);
+        Asserts.assertEquals("Title", TITLE, parse(page, contentType, Long.MAX_VALUE).getTitle());
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that a {@code <meta>} declaration after the first kilobyte is ignored.
+     */
+    private static void testLateDeclaration() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing late declaration");
+        String head = "<!--" + repeat("-", 1100) + "--><meta charset=\"windows-1251\">";
+        Document document = parse(bytes(page(head), WINDOWS_1251), null, Long.MAX_VALUE);
+        Asserts.assertTrue("Declaration is not ignored", !TITLE.equals(document.getTitle()));
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that multibyte characters split between reads of the buffer are decoded.
+     */
+    private static void testBufferBoundaries() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing buffer boundaries");
+        for (int shift = 0; shift < 4; shift++) {
+            String title = repeat("\u044f\u20ac", 10_000 + shift);
+            String page = "<html><head><title>" + title + "</title></head></html>";
+            byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
+            InputStream is = new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 1000 + 7 * off % 13));
+                }
+            };
+            Document document = Document.parse(new UrlResolver("http://www.example.com/"), is, null, new PageReader(Long.MAX_VALUE));
+            Asserts.assertEquals("Title of shift " + shift, title, document.getTitle());
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that pages are truncated at the maximal page size, and the number of bytes read.
+     */
+    private static void testTruncation() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing truncation");
+        String page = "<a href=\"a.html\"></a>" + repeat(" ", 20_000) + "<a href=\"b.html\"></a>";
+        byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
+        Document whole = parse(bytes, null, bytes.length);
+        Asserts.assertEquals("Links of the whole page", 2, whole.getLinks().size());
+        Document truncated = parse(bytes, null, bytes.length - 15);
+        Asserts.assertEquals("Links of the truncated page", 1, truncated.getLinks().size());
+        InputStream is = new ByteArrayInputStream(bytes);
+        parse(is, null, 10_000);
+        Asserts.assertEquals("Bytes left", bytes.length - 10_000, is.available());
+        COUNTER.passed();
+    }
+
+    private static Document parse(byte[] page, String contentType, long maxPageSize) throws IOException {
+        InputStream is = new TypedInputStream(page, contentType);
+        return parse(is, PageReader.contentType(is), maxPageSize);
+    }
+
+    private static Document parse(InputStream is, String contentType, long maxPageSize) throws IOException {
+        return Document.parse(new UrlResolver("http://www.example.com/"), is, contentType, new PageReader(maxPageSize));
+    }
+
+    private static String page(String head) {
+        return "<html><head>" + head + "<title>" + TITLE + "</title></head><body></body></html>";
+    }
+
+    private static byte[] bytes(String page, Charset charset) {
+        return page.getBytes(charset);
+    }
+
+    private static byte[] bom(byte[] bom, String page, Charset charset) {
+        byte[] body = page.getBytes(charset);
+        byte[] bytes = new byte[bom.length + body.length];
+        System.arraycopy(bom, 0, bytes, 0, bom.length);
+        System.arraycopy(body, 0, bytes, bom.length, body.length);
+        return bytes;
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Page body declaring a {@code Content-Type}, like the one of {@link HttpDownloader}.
+     */
+    private static class TypedInputStream extends ByteArrayInputStream implements TypedStream {
+        private final String contentType;
+
+        TypedInputStream(byte[] page, String contentType) {
+            super(page);
+            this.contentType = contentType;
+        }
+
+        @Override
+        public String contentType() {
+            return contentType;
+        }
+    }
+}
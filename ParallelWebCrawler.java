@@ -0,0 +1,334 @@
+package crawler;
+
+import java.io.*;
+import java.net.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Crawls pages level by level, downloading and parsing pages of each level concurrently.
+ * Produces the same {@link Page} graph as {@link SimpleWebCrawler}.
+ * <p>
+ * Pages up to {@value #MAX_BUFFERED_PAGE} bytes are read into memory and parsed by the extractors;
+ * longer pages are handed to the extractors as streams and parsed while they arrive, so a page in flight
+ * never takes more heap than that. The download thread is free as soon as the stream is handed over,
+ * but the host slot stays taken until the page is parsed, since the connection is still in use.
+ */
+public class ParallelWebCrawler implements WebCrawler, AutoCloseable {
+    private static final int MAX_BUFFERED_PAGE = 256 << 10;
+
+    private final Downloader downloader;
+    private final CrawlMetrics metrics;
+    private final HostScheduler scheduler;
+    private final ExecutorService extractors;
+    private final long maxPageSize;
+    private final ThreadLocal<PageReader> readers;
+    private int frontierLimit = 1 << 20;
+    private Path spillDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+    private Path imageDirectory = Paths.get("");
+
+    public ParallelWebCrawler(Downloader downloader, int downloaders, int extractors, int perHost) {
+        this(downloader, downloaders, extractors, perHost, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a crawler truncating pages longer than {@code maxPageSize} bytes.
+     */
+    public ParallelWebCrawler(Downloader downloader, int downloaders, int extractors, int perHost, long maxPageSize) {
+        this(downloader, downloaders, extractors, perHost, maxPageSize, CrawlMetrics.global());
+    }
+
+    /**
+     * Creates a crawler recording its downloads and stages in the given metrics.
+     */
+    public ParallelWebCrawler(Downloader downloader, int downloaders, int extractors, int perHost, long maxPageSize, CrawlMetrics metrics) {
+        if (downloaders <= 0 || extractors <= 0 || perHost <= 0) {
+            throw new IllegalArgumentException("Thread counts should be positive");
+        }
+        if (maxPageSize <= 0) {
+            throw new IllegalArgumentException("Maximal page size should be positive");
+        }
+        this.downloader = new MeteredDownloader(downloader, metrics);
+        this.metrics = metrics;
+        this.scheduler = new HostScheduler(this.downloader, downloaders, perHost);
+        this.extractors = Executors.newFixedThreadPool(extractors);
+        this.maxPageSize = maxPageSize;
+        this.readers = ThreadLocal.withInitial(() -> new PageReader(maxPageSize));
+    }
+
+    /**
+     * Sets the number of queued tasks kept in memory; the rest are spilled to {@code spillDirectory}.
+     */
+    public void setFrontierLimit(int frontierLimit, Path spillDirectory) {
+        if (frontierLimit < 2) {
+            throw new IllegalArgumentException("Frontier limit should be at least 2");
+        }
+        this.frontierLimit = frontierLimit;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets the directory images are stored to, the working directory by default.
+     * The directory is created if it does not exist.
+     */
+    public void setImageDirectory(Path imageDirectory) throws IOException {
+        CachingDownloader.createDirectory(imageDirectory);
+        this.imageDirectory = imageDirectory;
+    }
+
+    /**
+     * Limits the rate of downloads from a single host with a token bucket.
+     *
+     * @param rate maximal number of downloads per second, non-positive for no limit
+     * @param burst number of downloads a host may get at once after being idle
+     */
+    public void setHostRate(double rate, int burst) {
+        if (burst <= 0) {
+            throw new IllegalArgumentException("Burst should be positive");
+        }
+        scheduler.setRate(rate, burst);
+    }
+
+    /**
+     * Sets whether to slow hosts down to the {@code Crawl-delay} of their {@code robots.txt}.
+     * Crawl delays are fetched once per host and kept for the lifetime of the crawler.
+     */
+    public void setRespectCrawlDelay(boolean respectCrawlDelay) {
+        scheduler.setRespectCrawlDelay(respectCrawlDelay);
+    }
+
+    private void download(URL url, Runnable task) {
+        scheduler.submit(url, task);
+    }
+
+    /**
+     * Result of processing a single page of the current level.
+     */
+    private static class Result {
+        private Document document;
+        private List<CompletableFuture<String>> images;
+    }
+
+    @Override
+    public Page crawl(String url, int depth) {
+        return root(crawl(Collections.singletonList(url), depth), url);
+    }
+
+    /**
+     * Crawls from all seeds at once, with a single frontier, so every page and image is processed once.
+     * A page is crawled to the greatest depth left on any path from the seeds.
+     */
+    @Override
+    public Map<String, Page> crawlAll(Collection<String> seeds, int depth) {
+        LinkGraph graph = crawl(seeds, depth);
+        Map<String, Page> roots = new LinkedHashMap<>();
+        for (String seed : seeds) {
+            roots.put(seed, root(graph, seed));
+        }
+        return roots;
+    }
+
+    private LinkGraph crawl(Collection<String> seeds, int depth) {
+        UrlRegistry registry = new UrlRegistry(true);
+        LinkGraph graph = new LinkGraph(registry);
+        ConcurrentMap<String, CompletableFuture<String>> processedImages = new ConcurrentHashMap<>();
+        Map<Integer, CompletableFuture<String>> images = new LinkedHashMap<>();
+        Frontier tasks = new Frontier(frontierLimit, spillDirectory);
+        for (String seed : seeds) {
+            tasks.add(registry.register(UrlResolver.canonical(seed)), depth);
+        }
+
+        try {
+            while (!tasks.isEmpty()) {
+                int currentDepth = Frontier.depth(tasks.peek());
+                IntList ids = new IntList();
+                List<String> urls = new ArrayList<>();
+                List<URL> pageUrls = new ArrayList<>();
+                while (!tasks.isEmpty() && Frontier.depth(tasks.peek()) == currentDepth) {
+                    int id = Frontier.id(tasks.poll());
+                    if (graph.containsPage(id)) {
+                        continue;
+                    }
+                    String pageUrl = registry.url(id);
+                    if (currentDepth == 0) {
+                        graph.addPage(id, "");
+                        continue;
+                    }
+                    try {
+                        pageUrls.add(new URL(pageUrl));
+                        urls.add(pageUrl);
+                        ids.add(id);
+                    } catch (MalformedURLException e) {
+                        Logger.log(pageUrl + " is not a valid URL");
+                    }
+                }
+
+                Result[] results = process(urls, pageUrls, processedImages);
+
+                for (int i = 0; i < results.length; i++) {
+                    int id = ids.get(i);
+                    Document document = results[i].document;
+                    if (document == null) {
+                        graph.addPage(id, "");
+                        continue;
+                    }
+
+                    graph.addPage(id, document.getTitle());
+                    for (int j = 0; j < document.getImages().size(); j++) {
+                        int imageId = registry.register(document.getImages().get(j));
+                        if (!graph.containsImage(imageId)) {
+                            graph.putImage(imageId, null);
+                            images.put(imageId, results[i].images.get(j));
+                        }
+                        graph.addImage(imageId);
+                    }
+
+                    for (String completeChildUrl : document.getLinks()) {
+                        int childId = registry.register(completeChildUrl);
+                        tasks.add(childId, currentDepth - 1);
+                        graph.addLink(childId);
+                    }
+                }
+            }
+        } finally {
+            try {
+                tasks.close();
+            } catch (IOException e) {
+                Logger.log("Cannot remove frontier segments: " + e.getMessage());
+            }
+        }
+
+        for (Map.Entry<Integer, CompletableFuture<String>> image : images.entrySet()) {
+            String file = null;
+            try {
+                file = image.getValue().join();
+            } catch (CompletionException e) {
+                Logger.log("Image download failed: " + e.getCause());
+            }
+            if (file == null) {
+                graph.removeImage(image.getKey());
+            } else {
+                graph.putImage(image.getKey(), file);
+            }
+        }
+
+        long start = System.nanoTime();
+        graph.build();
+        metrics.record(CrawlMetrics.Stage.BUILD, System.nanoTime() - start);
+        return graph;
+    }
+
+    private static Page root(LinkGraph graph, String url) {
+        return graph.pageById(graph.urls().register(UrlResolver.canonical(url)));
+    }
+
+    /**
+     * Downloads and parses pages of a single level, starting downloads of their images.
+     * Unchecked exceptions and errors of the downloader or the parser are rethrown once the level is over.
+     */
+    private Result[] process(List<String> urls, List<URL> pageUrls, ConcurrentMap<String, CompletableFuture<String>> processedImages) {
+        Result[] results = new Result[urls.size()];
+        CountDownLatch latch = new CountDownLatch(urls.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < results.length; i++) {
+            int index = i;
+            Result result = results[i] = new Result();
+            scheduler.submitAsync(pageUrls.get(i), () -> {
+                String url = urls.get(index);
+                InputStream is = null;
+                try {
+                    is = downloader.download(url);
+                    String contentType = PageReader.contentType(is);
+                    ByteArrayOutputStream head = new ByteArrayOutputStream();
+                    boolean buffered = Document.read(is, head, (int) Math.min(maxPageSize, MAX_BUFFERED_PAGE)) || head.size() >= maxPageSize;
+                    InputStream page = new ByteArrayInputStream(head.toByteArray());
+                    if (buffered) {
+                        is.close();
+                    } else {
+                        page = new SequenceInputStream(page, is);
+                    }
+                    InputStream body = page;
+                    CompletableFuture<Void> parsed = CompletableFuture.runAsync(() -> {
+                        try (InputStream in = body) {
+                            extract(url, in, contentType, result, processedImages);
+                        } catch (IOException e) {
+                            Logger.log("Page parse failed: " + e.getMessage());
+                        } catch (Throwable e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            latch.countDown();
+                        }
+                    }, extractors);
+                    is = null;
+                    return buffered ? null : parsed;
+                } catch (IOException e) {
+                    Logger.log("Page read failed: " + e.getMessage());
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+                if (is != null) {
+                    try {
+                        is.close();
+                    } catch (IOException e) {
+                        Logger.log("Page read failed: " + e.getMessage());
+                    }
+                }
+                latch.countDown();
+                return null;
+            });
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Crawl interrupted", e);
+        }
+        Throwable e = failure.get();
+        if (e instanceof Error) {
+            throw (Error) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e != null) {
+            throw new IllegalStateException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Parses the page and starts downloads of its images.
+     */
+    private void extract(String url, InputStream is, String contentType, Result result, ConcurrentMap<String, CompletableFuture<String>> processedImages) throws IOException {
+        Document document = Document.parse(new UrlResolver(url), is, contentType, readers.get(), metrics);
+        List<CompletableFuture<String>> images = new ArrayList<>();
+        for (String completeImgUrl : document.getImages()) {
+            images.add(processedImages.computeIfAbsent(completeImgUrl, this::downloadImage));
+        }
+        result.images = images;
+        result.document = document;
+    }
+
+    private CompletableFuture<String> downloadImage(String url) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        try {
+            download(new URL(url), () -> {
+                try {
+                    future.complete(SimpleWebCrawler.downloadImage(downloader, url, imageDirectory, metrics));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (MalformedURLException e) {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    @Override
+    public void close() {
+        scheduler.close();
+        extractors.shutdownNow();
+    }
+}
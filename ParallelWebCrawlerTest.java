@@ -0,0 +1,52 @@
+package crawler;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Runs {@link WebCrawlerTest} against {@link ParallelWebCrawler}.
+ */
+public class ParallelWebCrawlerTest extends WebCrawlerTest {
+    public static void main(String[] args) {
+        crawlers = downloader -> new ParallelWebCrawler(downloader, 10, 3, 2);
+        testFailures();
+        WebCrawlerTest.main(args);
+    }
+
+    /**
+     * Checks that errors of page tasks reach the caller and failed image tasks do not stop the crawl.
+     */
+    private static void testFailures() {
+        SyntheticDownloader site = new SyntheticDownloader(1, 1000, SyntheticDownloader.Shape.POWER_LAW);
+        site.setImages(2);
+        String root = site.pageUrl(0);
+
+        COUNTER.nextTest();
+        System.err.println("=== Testing page errors");
+        try (ParallelWebCrawler crawler = new ParallelWebCrawler(url -> {
+            throw new AssertionError("Invalid cache record for " + url);
+        }, 10, 3, 2)) {
+            crawler.crawl(root, 2);
+            throw new IllegalStateException("Error was not propagated");
+        } catch (AssertionError e) {
+            System.err.println("Expected error: " + e.getMessage());
+        }
+        COUNTER.passed();
+
+        COUNTER.nextTest();
+        System.err.println("=== Testing image errors");
+        Downloader downloader = url -> {
+            if (url.endsWith(".png")) {
+                throw new IllegalStateException("Cannot store " + url);
+            }
+            return site.download(url);
+        };
+        try (ParallelWebCrawler crawler = new ParallelWebCrawler(downloader, 10, 3, 2)) {
+            Page expected = new SimpleWebCrawler(downloader).crawl(root, 3);
+            compare(expected, crawler.crawl(root, 3), new HashMap<>(), new HashMap<>(), downloader);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        COUNTER.passed();
+    }
+}
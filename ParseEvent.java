@@ -0,0 +1,29 @@
+package crawler;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event spanning parsing of a page.
+ */
+@Name("crawler.Parse")
+@Label("Parse")
+@Category("Crawler")
+@Description("Decoding and tokenizing of a page")
+class ParseEvent extends jdk.jfr.Event {
+    @Label("URL")
+    String url;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Links")
+    int links;
+
+    @Label("Images")
+    int images;
+}
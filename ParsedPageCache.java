@@ -0,0 +1,82 @@
+package crawler;
+
+import java.io.*;
+import java.nio.file.Path;
+
+/**
+ * Keeps titles, images and links extracted from downloaded pages, in a {@link SegmentedCacheStore}.
+ * <p>
+ * Each entry is tagged with the identity of the stored copy it was extracted from, see {@link Downloader#identity},
+ * and with the page size limit, so an entry is used only while the page and the limit stay the same.
+ * The number of bytes downloaded for the page is kept too, so that byte budgets count cached pages.
+ */
+class ParsedPageCache implements Closeable {
+    private static final int VERSION = 2;
+
+    private final SegmentedCacheStore store;
+    private final long maxPageSize;
+
+    /**
+     * Page extracted from a stored copy and the number of bytes it took to download.
+     */
+    static class Entry {
+        final Document document;
+        final long bytes;
+
+        Entry(Document document, long bytes) {
+            this.document = document;
+            this.bytes = bytes;
+        }
+    }
+
+    ParsedPageCache(Path directory, long maxPageSize) throws IOException {
+        this.store = new SegmentedCacheStore(directory);
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Returns the page extracted from the stored copy with the given identity,
+     * or {@code null} if there is no such entry.
+     */
+    public Entry get(String url, long identity) throws IOException {
+        if (identity == 0) {
+            return null;
+        }
+        InputStream record = store.read(url);
+        if (record == null) {
+            return null;
+        }
+        try (DataInputStream is = new DataInputStream(new BufferedInputStream(record))) {
+            if (is.readInt() != VERSION || is.readLong() != identity || is.readLong() != maxPageSize) {
+                return null;
+            }
+            long bytes = is.readLong();
+            return new Entry(CrawlLog.readDocument(is), bytes);
+        }
+    }
+
+    /**
+     * Stores the page extracted from the stored copy with the given identity, unless the identity is {@code 0}.
+     *
+     * @param pageBytes number of bytes downloaded for the page
+     */
+    public void put(String url, long identity, Document document, long pageBytes) throws IOException {
+        if (identity == 0) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream os = new DataOutputStream(bytes)) {
+            os.writeInt(VERSION);
+            os.writeLong(identity);
+            os.writeLong(maxPageSize);
+            os.writeLong(pageBytes);
+            CrawlLog.writeDocument(os, document);
+        }
+        store.write(url, new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+}
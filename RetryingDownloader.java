@@ -0,0 +1,306 @@
+package crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Bounds download latency of an upstream downloader with timeouts, retries and hedged requests.
+ * <p>
+ * Every attempt runs in a thread of a bounded pool and reads the whole body, so the timeout covers
+ * the complete response; bodies are read to memory up to a size limit, or to a temporary file
+ * next to the target by {@link #downloadTo}. Attempts abandoned after a timeout may keep their threads
+ * until the upstream read returns, later attempts then wait for a free thread within their timeout. When an attempt is slower than the given quantile of the observed latencies,
+ * a second, hedged request for the same URL is sent and the first response wins; the other is cancelled.
+ * Attempts failing with {@linkplain TransientIOException#isTransient transient errors} or timing out
+ * are retried after a random delay, growing exponentially with the attempt number.
+ * Other errors are reported at once; when retries are exhausted, the error is reported
+ * as {@link TransientIOException}, so caches do not remember it.
+ * Retries and hedged requests are counted in the given metrics, {@link CrawlMetrics#global()} by default.
+ */
+public class RetryingDownloader implements Downloader, AutoCloseable {
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+    private static final int RETRIES = 2;
+    private static final long BACKOFF = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final double HEDGE_QUANTILE = 0.95;
+    private static final int HEDGE_SAMPLES = 20;
+    private static final long MAX_BACKOFF = TimeUnit.MINUTES.toNanos(1);
+    private static final int BUFFER_SIZE = 8 << 10;
+    private static final long MAX_BODY_SIZE = 64 << 20;
+    private static final int THREADS = 64;
+
+    private final Downloader downloader;
+    private final CrawlMetrics metrics;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final ThreadPoolExecutor attempts;
+    private volatile long timeout = TIMEOUT;
+    private volatile int retries = RETRIES;
+    private volatile long backoff = BACKOFF;
+    private volatile double hedgeQuantile = HEDGE_QUANTILE;
+    private volatile long maxBodySize = MAX_BODY_SIZE;
+
+    public RetryingDownloader(Downloader downloader) {
+        this(downloader, THREADS);
+    }
+
+    /**
+     * Creates a downloader running at most {@code threads} attempts at once.
+     */
+    public RetryingDownloader(Downloader downloader, int threads) {
+        this(downloader, threads, CrawlMetrics.global());
+    }
+
+    /**
+     * Creates a downloader running at most {@code threads} attempts at once and counting retries and hedged requests in the given metrics.
+     */
+    public RetryingDownloader(Downloader downloader, int threads, CrawlMetrics metrics) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Number of threads should be positive");
+        }
+        this.downloader = downloader;
+        this.metrics = metrics;
+        this.attempts = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+            Thread thread = new Thread(task, "download-attempt");
+            thread.setDaemon(true);
+            return thread;
+        });
+        attempts.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Sets the time an attempt may take, including hedged requests and reading the body.
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout should be positive");
+        }
+        this.timeout = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets the number of retries after the first attempt and the mean delay before the first retry,
+     * which doubles with every retry up to a minute.
+     */
+    public void setRetries(int retries, long backoff, TimeUnit unit) {
+        if (retries < 0 || backoff < 0 || unit.toNanos(backoff) > MAX_BACKOFF) {
+            throw new IllegalArgumentException("Retries should be non-negative and backoff should be within a minute");
+        }
+        this.retries = retries;
+        this.backoff = unit.toNanos(backoff);
+    }
+
+    /**
+     * Sets the latency quantile after which a hedged request is sent, {@code 1} disables hedging.
+     */
+    public void setHedgeQuantile(double quantile) {
+        if (!(quantile > 0 && quantile <= 1)) {
+            throw new IllegalArgumentException("Hedge quantile should be in (0, 1]");
+        }
+        this.hedgeQuantile = quantile;
+    }
+
+    /**
+     * Sets the maximal size of a body read to memory by {@link #download}; longer bodies fail the download.
+     */
+    public void setMaxBodySize(long maxBodySize) {
+        if (maxBodySize < 0) {
+            throw new IllegalArgumentException("Maximal body size should be non-negative");
+        }
+        this.maxBodySize = maxBodySize;
+    }
+
+    @Override
+    public InputStream download(String url) throws IOException {
+        return new ByteArrayInputStream(retry(url, () -> request(url), body -> {
+        }));
+    }
+
+    /**
+     * Downloads the URL by {@link Downloader#downloadTo} of the upstream downloader, retrying and hedging
+     * like {@link #download}. Attempts write to temporary files, the winning one is moved to {@code file}.
+     */
+    @Override
+    public void downloadTo(String url, Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Path part = retry(url, () -> requestTo(url, directory), RetryingDownloader::delete);
+        try {
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Runs attempts of the request until one succeeds, fails permanently or retries are exhausted.
+     *
+     * @param discard action releasing results of successful requests that lost to a hedged one
+     */
+    private <T> T retry(String url, Callable<T> request, Consumer<T> discard) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return attempt(url, request, discard);
+            } catch (IOException e) {
+                if (!TransientIOException.isTransient(e)) {
+                    throw e;
+                }
+                if (attempt >= retries) {
+                    throw e instanceof TransientIOException ? e
+                            : new TransientIOException("Cannot download " + url + ": " + e.getMessage(), e);
+                }
+                Logger.log("Retrying " + url + ": " + e.getMessage());
+                metrics.downloadRetry();
+                sleep(url, ThreadLocalRandom.current().nextLong(2 * Math.min(backoff << Math.min(attempt, 16), MAX_BACKOFF) + 1));
+            }
+        }
+    }
+
+    @Override
+    public long identity(String url) throws IOException {
+        return downloader.identity(url);
+    }
+
+    /**
+     * Runs the request, hedging it when slow, and returns the result of the first successful one.
+     */
+    private <T> T attempt(String url, Callable<T> request, Consumer<T> discard) throws IOException {
+        CompletionService<T> requests = new ExecutorCompletionService<>(attempts);
+        List<Future<T>> futures = new ArrayList<>(2);
+        Future<T> winner = null;
+        long start = System.nanoTime();
+        long deadline = start + timeout;
+        long hedge = hedgeQuantile < 1 && latencies.count() >= HEDGE_SAMPLES
+                ? start + Math.min(latencies.quantileNanos(hedgeQuantile), timeout)
+                : deadline;
+        try {
+            futures.add(requests.submit(request));
+            IOException error = null;
+            int pending = 1;
+            while (pending > 0) {
+                boolean hedged = futures.size() > 1;
+                long until = hedged ? deadline : hedge;
+                Future<T> done = requests.poll(Math.max(until - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+                if (done == null) {
+                    if (System.nanoTime() - deadline >= 0) {
+                        throw new TransientIOException("Timed out downloading " + url + " after "
+                                + TimeUnit.NANOSECONDS.toMillis(timeout) + " ms");
+                    }
+                    if (!hedged) {
+                        metrics.downloadHedge();
+                        futures.add(requests.submit(request));
+                        pending++;
+                    }
+                    continue;
+                }
+                pending--;
+                try {
+                    T result = done.get();
+                    winner = done;
+                    return result;
+                } catch (ExecutionException e) {
+                    error = unwrap(e);
+                }
+            }
+            throw error;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted downloading " + url);
+        } finally {
+            for (Future<T> future : futures) {
+                if (!future.cancel(true) && future != winner) {
+                    try {
+                        discard.accept(future.get());
+                    } catch (ExecutionException | InterruptedException e) {
+                        // Failed, nothing to discard
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Downloads the whole body, recording latency of successful requests.
+     */
+    private byte[] request(String url) throws IOException {
+        long start = System.nanoTime();
+        long limit = maxBodySize;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream is = downloader.download(url)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                if (body.size() + read > limit) {
+                    throw new IOException("Body of " + url + " is longer than " + limit + " bytes");
+                }
+                body.write(buffer, 0, read);
+            }
+        }
+        latencies.record(System.nanoTime() - start);
+        return body.toByteArray();
+    }
+
+    /**
+     * Downloads the body to a new temporary file in the directory, recording latency of successful requests.
+     * The file is removed if the request fails or is cancelled.
+     */
+    private Path requestTo(String url, Path directory) throws IOException {
+        long start = System.nanoTime();
+        Path part = Files.createTempFile(directory, "download", ".part");
+        try {
+            downloader.downloadTo(url, part);
+            if (Thread.interrupted()) {
+                throw new InterruptedIOException("Cancelled downloading " + url);
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        latencies.record(System.nanoTime() - start);
+        return part;
+    }
+
+    private static void delete(Path part) {
+        try {
+            Files.deleteIfExists(part);
+        } catch (IOException e) {
+            Logger.log("Cannot remove " + part + ": " + e.getMessage());
+        }
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private static void sleep(String url, long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted retrying " + url);
+        }
+    }
+
+    /**
+     * Cancels running requests; the upstream downloader is not closed.
+     */
+    @Override
+    public void close() {
+        attempts.shutdownNow();
+    }
+}
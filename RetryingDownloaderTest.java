@@ -0,0 +1,228 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Tests {@link RetryingDownloader} and {@link CachingDownloader} against a fault-injecting downloader.
+ */
+public class RetryingDownloaderTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final String BODY = "<html><head><title>Hello</title></head><body>Hello, world!</body></html>";
+
+    public static void main(String[] args) throws IOException {
+        testRetries();
+        testRetryLimit();
+        testPermanentErrors();
+        testTimeout();
+        testHedging();
+        testCaching();
+        testMaxBodySize();
+        testDownloadTo();
+        COUNTER.printStatus(RetryingDownloaderTest.class);
+    }
+
+    private static void testRetries() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing transient errors are retried");
+        FaultyDownloader upstream = new FaultyDownloader().fail("http://a/", 2);
+        try (RetryingDownloader downloader = retrying(upstream, 2)) {
+            Asserts.assertEquals("Body", BODY, DownloaderTests.readString(downloader, "http://a/"));
+        }
+        Asserts.assertEquals("Requests", 3, upstream.requests("http://a/"));
+        COUNTER.passed();
+    }
+
+    private static void testRetryLimit() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing retries are bounded");
+        FaultyDownloader upstream = new FaultyDownloader().fail("http://a/", 3);
+        try (RetryingDownloader downloader = retrying(upstream, 2)) {
+            assertFails(downloader, "http://a/", true);
+        }
+        Asserts.assertEquals("Requests", 3, upstream.requests("http://a/"));
+        COUNTER.passed();
+    }
+
+    private static void testPermanentErrors() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing permanent errors are not retried");
+        FaultyDownloader upstream = new FaultyDownloader().missing("http://a/");
+        try (RetryingDownloader downloader = retrying(upstream, 2)) {
+            assertFails(downloader, "http://a/", false);
+        }
+        Asserts.assertEquals("Requests", 1, upstream.requests("http://a/"));
+        COUNTER.passed();
+    }
+
+    private static void testTimeout() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing slow requests time out");
+        FaultyDownloader upstream = new FaultyDownloader().delay("http://a/", 1, 10_000);
+        try (RetryingDownloader downloader = retrying(upstream, 1)) {
+            downloader.setTimeout(200, TimeUnit.MILLISECONDS);
+            long start = System.nanoTime();
+            Asserts.assertEquals("Body", BODY, DownloaderTests.readString(downloader, "http://a/"));
+            Asserts.assertTrue("Timeout", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        }
+        Asserts.assertEquals("Requests", 2, upstream.requests("http://a/"));
+        COUNTER.passed();
+    }
+
+    private static void testHedging() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing slow requests are hedged");
+        FaultyDownloader upstream = new FaultyDownloader().delay("http://slow/", 1, 10_000);
+        CrawlMetrics metrics = new CrawlMetrics();
+        try (RetryingDownloader downloader = new RetryingDownloader(upstream, 4, metrics)) {
+            downloader.setRetries(0, 10, TimeUnit.MILLISECONDS);
+            downloader.setHedgeQuantile(0.5);
+            for (int i = 0; i < 50; i++) {
+                DownloaderTests.readString(downloader, "http://fast/" + i);
+            }
+            long hedges = metrics.getDownloadHedges();
+            long start = System.nanoTime();
+            Asserts.assertEquals("Body", BODY, DownloaderTests.readString(downloader, "http://slow/"));
+            Asserts.assertTrue("Hedged", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            Asserts.assertEquals("Hedges", hedges + 1, metrics.getDownloadHedges());
+        }
+        Asserts.assertEquals("Requests", 2, upstream.requests("http://slow/"));
+        COUNTER.passed();
+    }
+
+    private static void testCaching() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing transient errors are not cached");
+        FaultyDownloader upstream = new FaultyDownloader().fail("http://a/", 1).missing("http://b/");
+        Path directory = Files.createTempDirectory("cache");
+        try (FileCacheStore store = new FileCacheStore(directory)) {
+            CachingDownloader downloader = new CachingDownloader(upstream, store);
+            assertFails(downloader, "http://a/", true);
+            Asserts.assertEquals("Body", BODY, DownloaderTests.readString(downloader, "http://a/"));
+            assertFails(downloader, "http://b/", false);
+            assertFails(downloader, "http://b/", false);
+        } finally {
+            DownloaderTests.delete(directory);
+        }
+        Asserts.assertEquals("Requests", 2, upstream.requests("http://a/"));
+        Asserts.assertEquals("Requests", 1, upstream.requests("http://b/"));
+        COUNTER.passed();
+    }
+
+    private static void testMaxBodySize() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing long bodies fail");
+        FaultyDownloader upstream = new FaultyDownloader();
+        try (RetryingDownloader downloader = retrying(upstream, 2)) {
+            downloader.setMaxBodySize(BODY.length());
+            Asserts.assertEquals("Body", BODY, DownloaderTests.readString(downloader, "http://a/"));
+            downloader.setMaxBodySize(BODY.length() - 1);
+            assertFails(downloader, "http://a/", false);
+        }
+        Asserts.assertEquals("Requests", 2, upstream.requests("http://a/"));
+        COUNTER.passed();
+    }
+
+    private static void testDownloadTo() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing downloads to files are delegated");
+        FaultyDownloader upstream = new FaultyDownloader().fail("http://a/", 1);
+        Path directory = Files.createTempDirectory("retrying");
+        try (RetryingDownloader downloader = retrying(upstream, 2)) {
+            Path file = directory.resolve("a");
+            downloader.downloadTo("http://a/", file);
+            Asserts.assertEquals("Body", BODY, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            try (Stream<Path> files = Files.list(directory)) {
+                Asserts.assertEquals("Files", 1L, files.count());
+            }
+        } finally {
+            DownloaderTests.delete(directory);
+        }
+        Asserts.assertEquals("Requests", 2, upstream.requests("http://a/"));
+        Asserts.assertEquals("Delegated", 1, upstream.transfers.get());
+        COUNTER.passed();
+    }
+
+    /**
+     * Downloader failing or delaying the first requests for the configured URLs.
+     */
+    private static class FaultyDownloader implements Downloader {
+        private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+        private final Map<String, Integer> delayed = new ConcurrentHashMap<>();
+        private final Map<String, Long> delays = new ConcurrentHashMap<>();
+        private final Map<String, Boolean> missing = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        private final AtomicInteger transfers = new AtomicInteger();
+
+        private FaultyDownloader fail(String url, int times) {
+            failures.put(url, times);
+            return this;
+        }
+
+        private FaultyDownloader delay(String url, int times, long millis) {
+            delayed.put(url, times);
+            delays.put(url, millis);
+            return this;
+        }
+
+        private FaultyDownloader missing(String url) {
+            missing.put(url, true);
+            return this;
+        }
+
+        private int requests(String url) {
+            AtomicInteger count = requests.get(url);
+            return count == null ? 0 : count.get();
+        }
+
+        @Override
+        public InputStream download(String url) throws IOException {
+            int request = requests.computeIfAbsent(url, u -> new AtomicInteger()).incrementAndGet();
+            if (missing.containsKey(url)) {
+                throw new IOException("HTTP 404 Not Found for " + url);
+            }
+            if (request <= failures.getOrDefault(url, 0)) {
+                throw new SocketTimeoutException("Read timed out for " + url);
+            }
+            if (request <= delayed.getOrDefault(url, 0)) {
+                try {
+                    Thread.sleep(delays.get(url));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void downloadTo(String url, Path file) throws IOException {
+            Downloader.super.downloadTo(url, file);
+            transfers.incrementAndGet();
+        }
+    }
+
+    private static RetryingDownloader retrying(Downloader upstream, int retries) {
+        RetryingDownloader downloader = new RetryingDownloader(upstream);
+        downloader.setRetries(retries, 10, TimeUnit.MILLISECONDS);
+        downloader.setHedgeQuantile(1);
+        return downloader;
+    }
+
+    private static void assertFails(Downloader downloader, String url, boolean transientError) {
+        IOException e = DownloaderTests.assertFails(downloader, url);
+        Asserts.assertEquals("Transient " + e.getMessage(), transientError, TransientIOException.isTransient(e));
+    }
+}
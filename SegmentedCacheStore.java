@@ -0,0 +1,335 @@
+package crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores records in append-only segment files, located through a memory-mapped hash index.
+ * <p>
+ * The index is an open-addressing table of (URL fingerprint, record location) slots.
+ * A record is appended to the last segment completely before its location is published
+ * in the index, so that a write interrupted by a crash of the process never becomes visible.
+ * Segments are forced to disk only on {@link #close()}, which marks the index clean; the index
+ * of a store that was not closed, say after a crash of the system, may point to records
+ * that never reached the disk, so its entries are validated when the store is opened and those
+ * pointing past the end of a segment or to a header of another URL are dropped.
+ * Each segment record holds the URL, which is checked on lookup, so fingerprint collisions read as misses.
+ * Lookups and inserts cost a constant number of I/O operations and no per-entry files.
+ * Reads may run concurrently with each other and with writes.
+ */
+public class SegmentedCacheStore implements CacheStore {
+    private static final long MAGIC = 0x5745424341434845L;
+    private static final long DIRTY = 0x5745424341434844L;
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int OFFSET_BITS = 40;
+    private static final long MAX_SEGMENT_SIZE = 1L << 30;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final List<FileChannel> segments = new ArrayList<>();
+    private long position;
+
+    private FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private int capacity;
+    private int size;
+
+    public SegmentedCacheStore(final Path directory) throws IOException {
+        this.directory = directory;
+        CachingDownloader.createDirectory(directory);
+        for (int i = 0; Files.exists(segment(i)); i++) {
+            segments.add(FileChannel.open(segment(i), StandardOpenOption.READ, StandardOpenOption.WRITE));
+        }
+        if (segments.isEmpty()) {
+            segments.add(FileChannel.open(segment(0), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE));
+        }
+        position = segments.get(segments.size() - 1).size();
+
+        final Path indexFile = directory.resolve("index");
+        if (Files.exists(indexFile)) {
+            mapIndex(indexFile);
+            final long magic = index.getLong(0);
+            if (magic != MAGIC && magic != DIRTY) {
+                throw new IOException("Invalid cache index " + indexFile);
+            }
+            capacity = index.getInt(8);
+            size = index.getInt(12);
+            if (magic == DIRTY) {
+                rebuild(capacity, true);
+            } else {
+                index.putLong(0, DIRTY);
+                index.force();
+            }
+        } else {
+            createIndex(indexFile, INITIAL_CAPACITY);
+        }
+    }
+
+    private Path segment(final int number) {
+        return directory.resolve(String.format("segment-%05d", number));
+    }
+
+    @Override
+    public InputStream read(final String url) throws IOException {
+        final long location;
+        final FileChannel segment;
+        synchronized (this) {
+            final long fingerprint = UrlRegistry.fingerprint(url);
+            final int slot = find(fingerprint);
+            if (index.getLong(slotOffset(slot)) != fingerprint) {
+                return null;
+            }
+            location = index.getLong(slotOffset(slot) + 8);
+            segment = segments.get((int) (location >>> OFFSET_BITS));
+        }
+        final long offset = location & ((1L << OFFSET_BITS) - 1);
+
+        final byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer header = ByteBuffer.allocate(4 + bytes.length + 8);
+        readFully(segment, header, offset);
+        if (header.getInt(0) != bytes.length) {
+            return null;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (header.get(4 + i) != bytes[i]) {
+                return null;
+            }
+        }
+        final long length = header.getLong(4 + bytes.length);
+        return new ChannelInputStream(segment, offset + header.capacity(), length);
+    }
+
+    /**
+     * Returns identity made of the location of the record; records are appended and never overwritten.
+     */
+    @Override
+    public synchronized long identity(final String url) {
+        final long fingerprint = UrlRegistry.fingerprint(url);
+        final int slot = find(fingerprint);
+        if (index.getLong(slotOffset(slot)) != fingerprint) {
+            return 0;
+        }
+        return index.getLong(slotOffset(slot) + 8) + 1;
+    }
+
+    @Override
+    public synchronized void write(final String url, final InputStream record) throws IOException {
+        if (position > MAX_SEGMENT_SIZE) {
+            segments.add(FileChannel.open(segment(segments.size()), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+            position = 0;
+        }
+        final FileChannel segment = segments.get(segments.size() - 1);
+        final long offset = position;
+
+        final byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer header = ByteBuffer.allocate(4 + bytes.length + 8);
+        header.putInt(bytes.length).put(bytes).putLong(0).flip();
+        long end = writeFully(segment, header, offset);
+
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read;
+        while ((read = record.read(buffer)) >= 0) {
+            end = writeFully(segment, ByteBuffer.wrap(buffer, 0, read), end);
+        }
+        final long length = end - offset - header.capacity();
+        final ByteBuffer lengthBuffer = ByteBuffer.allocate(8);
+        lengthBuffer.putLong(length).flip();
+        writeFully(segment, lengthBuffer, offset + 4 + bytes.length);
+        position = end;
+
+        put(UrlRegistry.fingerprint(url), (long) (segments.size() - 1) << OFFSET_BITS | offset);
+    }
+
+    private void put(final long fingerprint, final long location) throws IOException {
+        int slot = find(fingerprint);
+        if (index.getLong(slotOffset(slot)) == 0) {
+            if (2 * (size + 1) > capacity) {
+                resize();
+                slot = find(fingerprint);
+            }
+            size++;
+            index.putInt(12, size);
+        }
+        index.putLong(slotOffset(slot) + 8, location);
+        index.putLong(slotOffset(slot), fingerprint);
+    }
+
+    private int find(final long fingerprint) {
+        int slot = (int) fingerprint & (capacity - 1);
+        long current;
+        while ((current = index.getLong(slotOffset(slot))) != 0 && current != fingerprint) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return slot;
+    }
+
+    private static int slotOffset(final int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private void resize() throws IOException {
+        rebuild(capacity * 2, false);
+    }
+
+    /**
+     * Replaces the index with one of the given capacity holding the same entries.
+     *
+     * @param validate whether to drop entries of records that are not completely in the segments
+     */
+    private void rebuild(final int newCapacity, final boolean validate) throws IOException {
+        final MappedByteBuffer old = index;
+        final int oldCapacity = capacity;
+        final Path indexFile = directory.resolve("index");
+        final Path tmp = directory.resolve("index.tmp");
+        indexChannel.close();
+        createIndex(tmp, newCapacity);
+        size = 0;
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            final long fingerprint = old.getLong(slotOffset(slot));
+            if (fingerprint != 0 && (!validate || isValid(fingerprint, old.getLong(slotOffset(slot) + 8)))) {
+                final int newSlot = find(fingerprint);
+                index.putLong(slotOffset(newSlot) + 8, old.getLong(slotOffset(slot) + 8));
+                index.putLong(slotOffset(newSlot), fingerprint);
+                size++;
+            }
+        }
+        index.putInt(12, size);
+        index.force();
+        indexChannel.close();
+        Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        mapIndex(indexFile);
+    }
+
+    /**
+     * Checks that the record at the location lies within its segment and holds a URL with the given fingerprint.
+     */
+    private boolean isValid(final long fingerprint, final long location) throws IOException {
+        final int number = (int) (location >>> OFFSET_BITS);
+        if (number >= segments.size()) {
+            return false;
+        }
+        final FileChannel segment = segments.get(number);
+        final long segmentSize = segment.size();
+        final long offset = location & ((1L << OFFSET_BITS) - 1);
+        final ByteBuffer urlLength = ByteBuffer.allocate(4);
+        if (offset + 4 > segmentSize) {
+            return false;
+        }
+        readFully(segment, urlLength, offset);
+        final int length = urlLength.getInt(0);
+        if (length < 0 || offset + 4 + length + 8 > segmentSize) {
+            return false;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(length + 8);
+        readFully(segment, header, offset + 4);
+        final long recordLength = header.getLong(length);
+        return recordLength >= 0 && recordLength <= segmentSize - offset - 4 - length - 8
+                && UrlRegistry.fingerprint(new String(header.array(), 0, length, StandardCharsets.UTF_8)) == fingerprint;
+    }
+
+    private void createIndex(final Path file, final int capacity) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(DIRTY).putInt(capacity).putInt(0).flip();
+            writeFully(channel, header, 0);
+            final ByteBuffer last = ByteBuffer.allocate(1);
+            writeFully(channel, last, HEADER_SIZE + (long) capacity * SLOT_SIZE - 1);
+            channel.force(true);
+        }
+        mapIndex(file);
+        this.capacity = capacity;
+    }
+
+    private void mapIndex(final Path file) throws IOException {
+        indexChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of cache segment");
+            }
+            position += read;
+        }
+    }
+
+    private static long writeFully(final FileChannel channel, final ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    /**
+     * Forces the segments and the index to disk, then marks the index clean.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (final FileChannel segment : segments) {
+            segment.force(false);
+            segment.close();
+        }
+        index.force();
+        index.putLong(0, MAGIC);
+        index.force();
+        indexChannel.close();
+    }
+
+    /**
+     * Reads a range of a file channel with positional reads.
+     */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private final long end;
+
+        private ChannelInputStream(final FileChannel channel, final long position, final long length) {
+            this.channel = channel;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            final int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (read < 0) {
+                return -1;
+            }
+            position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final long skipped = Math.max(0, Math.min(n, end - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, end - position);
+        }
+    }
+}
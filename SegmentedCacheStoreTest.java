@@ -0,0 +1,216 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests {@link SegmentedCacheStore}.
+ */
+public class SegmentedCacheStoreTest {
+    private static final TestCounter COUNTER = new TestCounter();
+
+    public static void main(String[] args) throws IOException {
+        testReadWrite();
+        testReopen();
+        testCorruptedTail();
+        testConcurrent();
+        COUNTER.printStatus(SegmentedCacheStoreTest.class);
+    }
+
+    private static void testReadWrite() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing read and write");
+        Path directory = Files.createTempDirectory("segments");
+        try (SegmentedCacheStore store = new SegmentedCacheStore(directory)) {
+            Asserts.assertEquals("Missing record", null, store.read(url(0)));
+            Asserts.assertEquals("Missing identity", 0L, store.identity(url(0)));
+            write(store, 0, "first");
+            long identity = store.identity(url(0));
+            Asserts.assertEquals("Record", "first", read(store, 0));
+            write(store, 0, "second");
+            Asserts.assertEquals("Replaced record", "second", read(store, 0));
+            Asserts.assertTrue("Identity is not changed", identity != store.identity(url(0)));
+            write(store, 1, "");
+            Asserts.assertEquals("Empty record", "", read(store, 1));
+        } finally {
+            DownloaderTests.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that records and their identities survive reopening, across resizes of the index.
+     */
+    private static void testReopen() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing reopen");
+        Path directory = Files.createTempDirectory("segments");
+        try {
+            long[] identities = new long[10_000];
+            try (SegmentedCacheStore store = new SegmentedCacheStore(directory)) {
+                for (int i = 0; i < identities.length; i++) {
+                    write(store, i, body(i, 0));
+                    identities[i] = store.identity(url(i));
+                }
+            }
+            try (SegmentedCacheStore store = new SegmentedCacheStore(directory)) {
+                for (int i = 0; i < identities.length; i++) {
+                    Asserts.assertEquals("Record " + i, body(i, 0), read(store, i));
+                    Asserts.assertEquals("Identity " + i, identities[i], store.identity(url(i)));
+                }
+                write(store, identities.length, body(identities.length, 0));
+            }
+            try (SegmentedCacheStore store = new SegmentedCacheStore(directory)) {
+                Asserts.assertEquals("Record after reopen", body(identities.length, 0), read(store, identities.length));
+            }
+        } finally {
+            DownloaderTests.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that a store left open, whose segment lost its tail or got a zeroed header,
+     * drops the entries of the lost records on the next open and keeps the rest.
+     */
+    private static void testCorruptedTail() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing corrupted tail");
+        Path directory = Files.createTempDirectory("segments");
+        try {
+            SegmentedCacheStore crashed = new SegmentedCacheStore(directory);
+            long[] ends = new long[10];
+            for (int i = 0; i < ends.length; i++) {
+                write(crashed, i, body(i, 0));
+                ends[i] = Files.size(directory.resolve("segment-00000"));
+            }
+            try (FileChannel segment = FileChannel.open(directory.resolve("segment-00000"), StandardOpenOption.WRITE)) {
+                segment.write(ByteBuffer.allocate(4 + url(3).length()), ends[2]);
+                segment.truncate(ends[7] - 1);
+            }
+
+            try (SegmentedCacheStore store = new SegmentedCacheStore(directory)) {
+                for (int i = 0; i < ends.length; i++) {
+                    boolean lost = i == 3 || i >= 7;
+                    Asserts.assertEquals("Record " + i, lost ? null : body(i, 0), read(store, i));
+                    Asserts.assertEquals("Identity of " + i, lost, store.identity(url(i)) == 0);
+                }
+                write(store, 8, body(8, 1));
+                Asserts.assertEquals("Rewritten record", body(8, 1), read(store, 8));
+            }
+            try (SegmentedCacheStore store = new SegmentedCacheStore(directory)) {
+                Asserts.assertEquals("Rewritten record after reopen", body(8, 1), read(store, 8));
+                Asserts.assertEquals("Lost record after reopen", null, read(store, 9));
+            }
+        } finally {
+            DownloaderTests.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks that concurrent readers see either no record or a complete one.
+     */
+    private static void testConcurrent() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing concurrent writes and reads");
+        Path directory = Files.createTempDirectory("segments");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (SegmentedCacheStore store = new SegmentedCacheStore(directory)) {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int thread = 0; thread < 8; thread++) {
+                int seed = thread;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    int found = 0;
+                    for (int i = 0; i < 2000; i++) {
+                        int page = random.nextInt(100);
+                        if (random.nextBoolean()) {
+                            write(store, page, body(page, random.nextInt(10)));
+                        } else {
+                            String record = read(store, page);
+                            if (record != null) {
+                                Asserts.assertTrue("Torn record " + page, isBody(page, record));
+                                found++;
+                            }
+                        }
+                    }
+                    return found;
+                }));
+            }
+            int found = 0;
+            for (Future<Integer> future : futures) {
+                found += future.get();
+            }
+            Asserts.assertTrue("Nothing found", found > 0);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new AssertionError(e);
+        } finally {
+            executor.shutdownNow();
+            DownloaderTests.delete(directory);
+        }
+        COUNTER.passed();
+    }
+
+    private static String url(int page) {
+        return "http://www.example.com/p" + page + ".html";
+    }
+
+    /**
+     * Returns a body of the page of a thousand or more characters, which differs between versions.
+     */
+    private static String body(int page, int version) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 100 + version * 50; i++) {
+            body.append(page).append(':').append(version).append(' ');
+        }
+        return body.toString();
+    }
+
+    private static boolean isBody(int page, String record) {
+        for (int version = 0; version < 10; version++) {
+            if (body(page, version).equals(record)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void write(SegmentedCacheStore store, int page, String body) throws IOException {
+        store.write(url(page), new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String read(SegmentedCacheStore store, int page) throws IOException {
+        InputStream record = store.read(url(page));
+        if (record == null) {
+            return null;
+        }
+        try (InputStream is = record) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = is.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -2,199 +2,374 @@ package crawler;
 
 import java.io.*;
 import java.net.*;
-import java.nio.file.Files;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.util.*;
-import java.util.regex.*;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class SimpleWebCrawler implements WebCrawler {
     private Downloader downloader;
+    private CrawlMetrics metrics;
+    private PageReader reader;
+    private long maxPageSize;
+    private int frontierLimit = 1 << 20;
+    private Path spillDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+    private int imageThreads = 4;
+    private int imageQueueSize = 256;
+    private Path imageDirectory = Paths.get("");
+    private Path checkpoint;
+    private int checkpointInterval;
+    private Path parsedPages;
 
     public SimpleWebCrawler(Downloader downloader) throws IOException {
-        this.downloader = downloader;
+        this(downloader, Long.MAX_VALUE);
     }
 
-    private static List<String> extractTag(String source, String tag) {
-        List<String> list = new ArrayList<>();
-        Pattern pattern = Pattern.compile("<" + tag + ".*?>");
-        Matcher matcher = pattern.matcher(source);
-        while (matcher.find()) {
-            list.add(source.substring(matcher.start(), matcher.end()));
-        }
-        return list;
+    /**
+     * Creates a crawler truncating pages longer than {@code maxPageSize} bytes.
+     */
+    public SimpleWebCrawler(Downloader downloader, long maxPageSize) throws IOException {
+        this(downloader, maxPageSize, CrawlMetrics.global());
     }
 
-    private static String extractAttribute(String tag, String attribute) {
-        Pattern pattern = Pattern.compile(attribute + "\\s*=\\s*\"(.*?)\"");
-        Matcher matcher = pattern.matcher(tag);
-        return matcher.find() ? matcher.group(1) : null;
+    /**
+     * Creates a crawler recording its downloads and stages in the given metrics.
+     */
+    public SimpleWebCrawler(Downloader downloader, long maxPageSize, CrawlMetrics metrics) throws IOException {
+        this.downloader = new MeteredDownloader(downloader, metrics);
+        this.metrics = metrics;
+        this.reader = new PageReader(maxPageSize);
+        this.maxPageSize = maxPageSize;
     }
 
-    private static String extractTitle(String source) {
-        Pattern pattern = Pattern.compile("<title>" + "(.*)" + "</title>");
-        Matcher matcher = pattern.matcher(source);
-        return matcher.find() ? matcher.group(1) : "";
+    /**
+     * Sets the number of queued tasks kept in memory; the rest are spilled to {@code spillDirectory}.
+     */
+    public void setFrontierLimit(int frontierLimit, Path spillDirectory) {
+        if (frontierLimit < 2) {
+            throw new IllegalArgumentException("Frontier limit should be at least 2");
+        }
+        this.frontierLimit = frontierLimit;
+        this.spillDirectory = spillDirectory;
     }
 
-    private static String removeComments(String source) {
-        return source.replaceAll("<!--[\\s\\S]*?-->", "");
+    /**
+     * Sets the number of threads downloading images and the number of images waiting for them.
+     */
+    public void setImageThreads(int imageThreads, int imageQueueSize) {
+        if (imageThreads <= 0 || imageQueueSize <= 0) {
+            throw new IllegalArgumentException("Image threads and queue size should be positive");
+        }
+        this.imageThreads = imageThreads;
+        this.imageQueueSize = imageQueueSize;
     }
 
-    private static String replaceEntities(String str) {
-        // &amp;nbsp;
-        return str.replaceAll("&lt;", "<")
-                  .replaceAll("&gt;", ">")
-                  .replaceAll("&amp;", "&")
-                  .replaceAll("&mdash;", "\u2014")
-                  .replaceAll("&nbsp;", "\u00A0");
+    /**
+     * Sets the directory images are stored to, the working directory by default.
+     * The directory is created if it does not exist.
+     */
+    public void setImageDirectory(Path imageDirectory) throws IOException {
+        CachingDownloader.createDirectory(imageDirectory);
+        this.imageDirectory = imageDirectory;
     }
 
-    private static String removeAnchor(String url) {
-        for (int i = 0; i < url.length(); i++) {
-            if (url.charAt(i) == '#') {
-                return url.substring(0, i);
-            }
+    /**
+     * Enables checkpoints: outcomes of downloads are appended to {@code checkpoint} and flushed
+     * every {@code interval} pages. A crawl with the same URL and depth resumes from the checkpoint
+     * left by an interrupted one. The checkpoint is removed when the crawl completes.
+     */
+    public void setCheckpoint(Path checkpoint, int interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval should be positive");
         }
-        return url;
+        this.checkpoint = checkpoint;
+        this.checkpointInterval = interval;
     }
 
-    private static String generateLocalFilename(String url) {
+    /**
+     * Keeps titles, images and links of downloaded pages in {@code directory}, so that later crawls
+     * skip download and parsing of pages whose stored copy did not change.
+     * Works with downloaders reporting {@link Downloader#identity} of stored copies, such as {@link CachingDownloader};
+     * the directory should be removed together with their storage.
+     */
+    public void setParsedPageCache(Path directory) {
+        this.parsedPages = directory;
+    }
+
+    /**
+     * Downloads the image to a file in the directory, named after the encoded URL.
+     *
+     * @return name of the local file or {@code null} if download failed
+     */
+    static String downloadImage(Downloader downloader, String url, Path directory, CrawlMetrics metrics) {
+        long start = System.nanoTime();
+        Path file = directory.resolve(CachingDownloader.encode(url));
         try {
-            final String encoded = URLEncoder.encode(url, "UTF-8");
-            return encoded.length() < 200 ? encoded : encoded.substring(0, 200);
-        } catch (UnsupportedEncodingException e)
-        {
-            return url.replaceAll("://", "_").replaceAll("/", "_");
+            downloader.downloadTo(url, file);
+            return file.toString();
+        } catch (FileSystemException e) {
+            Logger.log("Could not create " + e.getFile());
+        } catch (IOException e) {
+            Logger.log("Could not download " + url);
+        } finally {
+            metrics.record(CrawlMetrics.Stage.IMAGE, System.nanoTime() - start);
         }
+        return null;
     }
 
     @Override
     public Page crawl(String url, int depth) {
-        class Task {
-            private Task(String url, int depth) {
-                this.url = url;
-                this.depth = depth;
-            }
-            private String url;
-            private int depth;
-        }
-        Deque<Task> tasks = new ArrayDeque<>();
-        tasks.addLast(new Task(url, depth));
-
-        Map<String, Page> processedPages = new HashMap<>();
-        Map<String, Image> processedImages = new HashMap<>();
-        List<String> visitHistory = new ArrayList<>();
-        Map<String, List<String>> pageChildren = new HashMap<>();
+        return crawl(url, depth, new CrawlBudget()).getRoot();
+    }
 
-        while (!tasks.isEmpty()) {
-            Task currentTask = tasks.pollFirst();
+    /**
+     * Crawls until the depth or any limit of the budget is reached.
+     * The graph of a stopped crawl has all pages found so far, those not downloaded have empty titles.
+     */
+    public CrawlResult crawl(String url, int depth, CrawlBudget budget) {
+        LinkGraph graph = new LinkGraph(new UrlRegistry(true));
+        CrawlBudget.Limit limit = crawl(Collections.singletonList(url), depth, budget, null, graph);
+        return new CrawlResult(root(graph, url), limit);
+    }
 
-            if (processedPages.containsKey(currentTask.url)) {
-                continue;
-            }
+    /**
+     * Crawls from all seeds at once, with a single frontier, so every page and image is processed once.
+     * A page is crawled to the greatest depth left on any path from the seeds.
+     */
+    @Override
+    public Map<String, Page> crawlAll(Collection<String> seeds, int depth) {
+        LinkGraph graph = new LinkGraph(new UrlRegistry(true));
+        crawl(seeds, depth, new CrawlBudget(), null, graph);
+        Map<String, Page> roots = new LinkedHashMap<>();
+        for (String seed : seeds) {
+            roots.put(seed, root(graph, seed));
+        }
+        return roots;
+    }
 
-            visitHistory.add(currentTask.url);
+    /**
+     * Crawls without building the page graph, reporting results to the listener as they are produced.
+     * Neither pages nor the graph are kept, but every URL of a page or an image found stays in memory until
+     * the crawl ends: its UTF-8 bytes plus 40 to 80 bytes of fingerprints, ids, depths and visited bits,
+     * so ten million URLs of 60 bytes take about a gigabyte. Queued tasks beyond the frontier limit are spilled to disk.
+     */
+    public void crawl(String url, int depth, CrawlListener listener) {
+        crawl(Collections.singletonList(url), depth, new CrawlBudget(), listener, null);
+    }
 
-            if (currentTask.depth == 0) {
-                processedPages.put(currentTask.url, new Page(currentTask.url, ""));
-                continue;
-            }
+    private CrawlBudget.Limit crawl(Collection<String> seeds, int depth, CrawlBudget budget, CrawlListener listener, LinkGraph graph) {
+        long crawlStart = System.nanoTime();
+        UrlRegistry urls = graph == null ? new UrlRegistry(true) : graph.urls();
+        Frontier tasks = new Frontier(frontierLimit, spillDirectory);
+        for (String seed : seeds) {
+            tasks.add(urls.register(UrlResolver.canonical(seed)), depth);
+        }
 
-            URL currentPageUrl;
+        BitSet visited = new BitSet();
+        BitSet knownImages = new BitSet();
+        int pages = 0;
+        long bytes = 0;
+        int imageCount = 0;
+        CrawlBudget.Limit limit = null;
+        CrawlLog log = null;
+        if (checkpoint != null) {
             try {
-                currentPageUrl = new URL(currentTask.url);
-            } catch (MalformedURLException e) {
-                System.out.println(currentTask.url + " is not a valid URL");
-                continue;
+                log = new CrawlLog(checkpoint, String.join(" ", seeds), depth, checkpointInterval);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open checkpoint " + checkpoint, e);
             }
-
-            String pageContents = null;
-            try (BufferedReader in = new BufferedReader(
-                    new InputStreamReader(downloader.download(currentTask.url), "utf8"))) {
-                StringBuilder text = new StringBuilder();
-                String inputLine;
-                while ((inputLine = in.readLine()) != null)
-                    text.append(inputLine);
-                pageContents = text.toString();
-            } catch (UnsupportedEncodingException e) {
-                System.out.println("UTF-8 is not supported on this machine");
+        }
+        ParsedPageCache parsed = null;
+        if (parsedPages != null) {
+            try {
+                parsed = new ParsedPageCache(parsedPages, maxPageSize);
             } catch (IOException e) {
-                System.out.println("Page read failed: " + e.getMessage());
+                Logger.log("Cannot open parsed page cache " + parsedPages + ": " + e.getMessage());
             }
+        }
+        ImagePipeline images = new ImagePipeline(downloader, imageDirectory, imageThreads, imageQueueSize, log, listener, metrics);
 
-            if (pageContents == null) {
-                processedPages.put(currentTask.url, new Page(currentTask.url, ""));
-                continue;
-            }
+        try {
+            while (!tasks.isEmpty()) {
+                long currentTask = tasks.poll();
+                int currentId = Frontier.id(currentTask);
+                int currentDepth = Frontier.depth(currentTask);
 
-            String title = replaceEntities(extractTitle(pageContents));
-            Page currentPage = new Page(currentTask.url, title);
+                if (visited.get(currentId)) {
+                    continue;
+                }
 
-            pageContents = removeComments(pageContents);
+                String currentUrl = urls.url(currentId);
 
-            List<String> imgList = extractTag(pageContents, "img");
-            for (String tag : imgList) {
-                String imgLink = extractAttribute(tag, "src");
-                if (imgLink == null) {
+                if (limit == null && currentDepth > 0) {
+                    limit = budget.pageLimit(pages, bytes, crawlStart);
+                    if (limit == CrawlBudget.Limit.TIME) {
+                        images.cancel();
+                    }
+                }
+                if (currentDepth == 0 || limit != null) {
+                    visit(graph, listener, visited, currentId, currentUrl, "");
                     continue;
                 }
-                URL imgUrl;
+
+                UrlResolver currentPageUrl;
                 try {
-                    imgUrl = new URL(currentPageUrl, imgLink);
+                    currentPageUrl = new UrlResolver(currentUrl);
                 } catch (MalformedURLException e) {
-                    System.out.println(imgLink + " is not a valid URL");
+                    Logger.log(currentUrl + " is not a valid URL");
                     continue;
                 }
-                String completeImgUrl = replaceEntities(imgUrl.toString());
-                if (!processedImages.containsKey(completeImgUrl)) {
-                    String localFilename = generateLocalFilename(completeImgUrl);
-                    try {
-                        Files.copy(downloader.download(completeImgUrl), Paths.get(localFilename), StandardCopyOption.REPLACE_EXISTING);
-                        processedImages.put(completeImgUrl, new Image(completeImgUrl, localFilename));
-                    } catch (FileNotFoundException e) {
-                        System.out.println("Could not create " + localFilename);
-                    } catch (IOException e) {
-                        System.out.println("Could not download " + completeImgUrl);
+
+                Document document = null;
+                pages++;
+                if (log != null && log.replaying()) {
+                    ParsedPageCache.Entry entry = log.replay();
+                    document = entry.document;
+                    bytes += entry.bytes;
+                } else {
+                    ParsedPageCache.Entry entry = parsed == null ? null : parsed(parsed, currentUrl);
+                    long pageBytes;
+                    if (entry != null) {
+                        document = entry.document;
+                        pageBytes = entry.bytes;
+                    } else {
+                        pageBytes = 0;
+                        try (InputStream is = downloader.download(currentUrl)) {
+                            try {
+                                document = Document.parse(currentPageUrl, is, PageReader.contentType(is), reader, metrics);
+                            } finally {
+                                if (is instanceof MeteredDownloader.Body) {
+                                    pageBytes = ((MeteredDownloader.Body) is).bytes();
+                                }
+                            }
+                        } catch (IOException e) {
+                            Logger.log("Page read failed: " + e.getMessage());
+                        }
+                        if (parsed != null && document != null) {
+                            try {
+                                parsed.put(currentUrl, downloader.identity(currentUrl), document, pageBytes);
+                            } catch (IOException e) {
+                                Logger.log("Cannot write parsed page cache: " + e.getMessage());
+                            }
+                        }
+                    }
+                    bytes += pageBytes;
+                    if (log != null) {
+                        log.page(document, pageBytes);
                     }
                 }
-                currentPage.addImage(processedImages.get(completeImgUrl));
-            }
 
-            List<String> aList = extractTag(pageContents, "a");
-            for (String tag : aList) {
-                String childLink = extractAttribute(tag, "href");
-                if (childLink == null) {
+                if (document == null) {
+                    visit(graph, listener, visited, currentId, currentUrl, "");
                     continue;
                 }
-                URL childUrl;
-                try {
-                    childUrl = new URL(currentPageUrl, childLink);
-                } catch (MalformedURLException e) {
-                    System.out.println(childLink + " is not a valid URL");
-                    continue;
+
+                visit(graph, listener, visited, currentId, currentUrl, document.getTitle());
+
+                for (String completeImgUrl : document.getImages()) {
+                    int imageId = urls.register(completeImgUrl);
+                    if (!knownImages.get(imageId)) {
+                        knownImages.set(imageId);
+                        if (graph != null) {
+                            graph.putImage(imageId, null);
+                        }
+                        if (limit == null && !budget.allowsImage(imageCount++)) {
+                            limit = CrawlBudget.Limit.IMAGES;
+                        }
+                        if (limit == null) {
+                            if (log != null && log.containsImage(completeImgUrl)) {
+                                images.add(imageId, completeImgUrl, log.imageFile(completeImgUrl));
+                            } else {
+                                images.submit(imageId, completeImgUrl);
+                            }
+                        }
+                    }
+                    if (graph != null) {
+                        graph.addImage(imageId);
+                    } else {
+                        listener.imageFound(currentUrl, completeImgUrl);
+                    }
                 }
-                String completeChildUrl = replaceEntities(childUrl.toString());
 
-                tasks.addLast(new Task(completeChildUrl, currentTask.depth - 1));
-                pageChildren.putIfAbsent(currentTask.url, new ArrayList<>());
-                pageChildren.get(currentTask.url).add(removeAnchor(completeChildUrl));
+                for (String completeChildUrl : document.getLinks()) {
+                    int childId = urls.register(completeChildUrl);
+                    tasks.add(childId, currentDepth - 1);
+                    if (graph != null) {
+                        graph.addLink(childId);
+                    } else {
+                        listener.linkDiscovered(currentUrl, completeChildUrl);
+                    }
+                }
+
+                if (listener != null) {
+                    images.drain();
+                }
             }
+            if (!images.complete(graph, budget.deadline(crawlStart)) && limit == null) {
+                limit = CrawlBudget.Limit.TIME;
+            }
+            if (log != null) {
+                log.delete();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write checkpoint " + checkpoint, e);
+        } finally {
+            images.close();
+            try {
+                tasks.close();
+            } catch (IOException e) {
+                Logger.log("Cannot remove frontier segments: " + e.getMessage());
+            }
+            if (log != null) {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    Logger.log("Cannot close checkpoint: " + e.getMessage());
+                }
+            }
+            if (parsed != null) {
+                try {
+                    parsed.close();
+                } catch (IOException e) {
+                    Logger.log("Cannot close parsed page cache: " + e.getMessage());
+                }
+            }
+        }
 
-            processedPages.put(currentTask.url, currentPage);
+        if (graph != null) {
+            long start = System.nanoTime();
+            graph.build();
+            metrics.record(CrawlMetrics.Stage.BUILD, System.nanoTime() - start);
         }
+        return limit;
+    }
 
-        ListIterator li = visitHistory.listIterator(visitHistory.size());
+    private static Page root(LinkGraph graph, String url) {
+        return graph.pageById(graph.urls().register(UrlResolver.canonical(url)));
+    }
 
-        while (li.hasPrevious()) {
-            String parent = (String) li.previous();
-            if (pageChildren.containsKey(parent)) {
-                for (String child : pageChildren.get(parent)) {
-                    processedPages.get(parent).addLink(processedPages.get(child));
-                }
-            }
+    /**
+     * Returns the page extracted from the current stored copy earlier, or {@code null} if there is none.
+     */
+    private ParsedPageCache.Entry parsed(ParsedPageCache parsed, String url) {
+        try {
+            return parsed.get(url, downloader.identity(url));
+        } catch (IOException e) {
+            Logger.log("Cannot read parsed page cache: " + e.getMessage());
+            return null;
         }
+    }
 
-        return processedPages.get(url);
+    private static void visit(LinkGraph graph, CrawlListener listener, BitSet visited, int id, String url, String title) {
+        visited.set(id);
+        if (graph != null) {
+            graph.addPage(id, title);
+        } else {
+            listener.pageFetched(url, title);
+        }
     }
 }
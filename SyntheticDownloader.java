@@ -0,0 +1,301 @@
+package crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Generates pages of a large synthetic site on demand, for scale and load testing.
+ * <p>
+ * Pages are numbered from {@code 0}, see {@link #pageUrl(int)}, and spread over several hosts.
+ * The links and images of a page are a function of the seed and the page number only,
+ * so equal settings always produce the same site, however many pages it has and in whatever order
+ * they are requested. Links to pages of the same host are relative, other links are absolute.
+ * A fraction of pages and images permanently fails, another fraction of requests fails with
+ * {@link TransientIOException}; requests may be delayed by a random latency with exponential distribution.
+ * Served pages, images and bytes are counted. Instances are thread-safe once configured.
+ */
+public class SyntheticDownloader implements Downloader {
+    private static final String DOMAIN = ".synthetic.test";
+    private static final double POWER_LAW_EXPONENT = 2.1;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final int LINKS = 1;
+    private static final int IMAGES = 2;
+    private static final int PAGE_ERRORS = 3;
+    private static final int IMAGE_ERRORS = 4;
+    private static final byte[] FILLER = ("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit, "
+            + "sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.</p>\n").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Link structure of the site.
+     */
+    public enum Shape {
+        /** Out-degrees follow a power law up to the link limit, links point to random pages. */
+        POWER_LAW,
+        /** Every page links to the next one only. */
+        CHAIN,
+        /** Pages form cliques of the link limit plus one pages; the first page of a clique links to the next clique. */
+        CLIQUE
+    }
+
+    private final long seed;
+    private final int pages;
+    private final Shape shape;
+    private int hosts = 16;
+    private int links = 64;
+    private int images = 1;
+    private int pageSize = 4 << 10;
+    private int imageSize = 4 << 10;
+    private long latency;
+    private double errorRate;
+    private double transientErrorRate;
+
+    private final LongAdder servedPages = new LongAdder();
+    private final LongAdder servedImages = new LongAdder();
+    private final LongAdder servedBytes = new LongAdder();
+
+    public SyntheticDownloader(long seed, int pages, Shape shape) {
+        if (pages <= 0) {
+            throw new IllegalArgumentException("Number of pages should be positive");
+        }
+        this.seed = seed;
+        this.pages = pages;
+        this.shape = shape;
+    }
+
+    public void setHosts(int hosts) {
+        if (hosts <= 0) {
+            throw new IllegalArgumentException("Number of hosts should be positive");
+        }
+        this.hosts = hosts;
+    }
+
+    /**
+     * Sets the maximal number of links on a page.
+     */
+    public void setLinks(int links) {
+        if (links <= 0) {
+            throw new IllegalArgumentException("Number of links should be positive");
+        }
+        this.links = links;
+    }
+
+    /**
+     * Sets the number of images on a page, images are chosen at random from {@code pages * images} ones.
+     */
+    public void setImages(int images) {
+        if (images < 0) {
+            throw new IllegalArgumentException("Number of images should be non-negative");
+        }
+        this.images = images;
+    }
+
+    /**
+     * Sets minimal sizes of pages and images in bytes; pages are padded with text.
+     */
+    public void setSizes(int pageSize, int imageSize) {
+        if (pageSize < 0 || imageSize < 0) {
+            throw new IllegalArgumentException("Sizes should be non-negative");
+        }
+        this.pageSize = pageSize;
+        this.imageSize = imageSize;
+    }
+
+    /**
+     * Sets the mean delay of a request.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        if (latency < 0) {
+            throw new IllegalArgumentException("Latency should be non-negative");
+        }
+        this.latency = unit.toNanos(latency);
+    }
+
+    /**
+     * Sets the fraction of URLs always failing and the fraction of requests failing transiently.
+     */
+    public void setErrorRates(double errorRate, double transientErrorRate) {
+        if (!(errorRate >= 0 && errorRate <= 1 && transientErrorRate >= 0 && transientErrorRate <= 1)) {
+            throw new IllegalArgumentException("Error rates should be in [0, 1]");
+        }
+        this.errorRate = errorRate;
+        this.transientErrorRate = transientErrorRate;
+    }
+
+    public String pageUrl(int page) {
+        return "http://h" + page % hosts + DOMAIN + "/p" + page + ".html";
+    }
+
+    public String imageUrl(int image) {
+        return "http://h" + image % hosts + DOMAIN + "/i" + image + ".png";
+    }
+
+    public long getPages() {
+        return servedPages.sum();
+    }
+
+    public long getImages() {
+        return servedImages.sum();
+    }
+
+    public long getBytes() {
+        return servedBytes.sum();
+    }
+
+    @Override
+    public InputStream download(String url) throws IOException {
+        if (latency > 0) {
+            delay(url);
+        }
+        int slash = url.lastIndexOf('/');
+        boolean image = url.endsWith(".png");
+        int id = parse(url, slash + 1, url.length() - (image ? 4 : 5));
+        if (id < 0 || id >= (image ? imageCount() : pages)
+                || !url.equals(image ? imageUrl(id) : pageUrl(id))) {
+            throw new IOException("Url not found " + url);
+        }
+        if (errorRate > 0 && random(id, image ? IMAGE_ERRORS : PAGE_ERRORS).nextDouble() < errorRate) {
+            throw new IOException("HTTP 404 Not Found for " + url);
+        }
+        if (transientErrorRate > 0 && ThreadLocalRandom.current().nextDouble() < transientErrorRate) {
+            throw new TransientIOException("HTTP 503 Service Unavailable for " + url);
+        }
+
+        byte[] body = image ? image(id) : page(id);
+        (image ? servedImages : servedPages).increment();
+        servedBytes.add(body.length);
+        return new ByteArrayInputStream(body);
+    }
+
+    private void delay(String url) throws InterruptedIOException {
+        long nanos = (long) (-latency * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted downloading " + url);
+        }
+    }
+
+    /**
+     * Parses the number between the name prefix and the extension, returns {@code -1} if there is none.
+     */
+    private static int parse(String url, int from, int to) {
+        if (from + 1 >= to || to - from > 11) {
+            return -1;
+        }
+        long id = 0;
+        for (int i = from + 1; i < to; i++) {
+            char c = url.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            id = id * 10 + c - '0';
+        }
+        return id > Integer.MAX_VALUE ? -1 : (int) id;
+    }
+
+    private int imageCount() {
+        return (int) Math.min((long) pages * images, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns a generator of the given kind of values of the page or image.
+     */
+    private SplittableRandom random(int id, int kind) {
+        return new SplittableRandom(seed + ((long) kind << 32 | id) * GOLDEN_GAMMA);
+    }
+
+    private byte[] page(int page) {
+        String host = "h" + page % hosts + DOMAIN;
+        StringBuilder sb = new StringBuilder(pageSize + 256);
+        sb.append("<!DOCTYPE html>\n<html><head><title>Page ").append(page).append("</title></head>\n<body>\n");
+        for (int link : links(page)) {
+            sb.append("<a href=\"");
+            appendRelative(sb, host, pageUrl(link));
+            sb.append("\">Page ").append(link).append("</a>\n");
+        }
+        if (images > 0) {
+            SplittableRandom random = random(page, IMAGES);
+            for (int i = 0; i < images; i++) {
+                sb.append("<img src=\"");
+                appendRelative(sb, host, imageUrl(random.nextInt(imageCount())));
+                sb.append("\">\n");
+            }
+        }
+        byte[] head = sb.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] tail = "</body></html>\n".getBytes(StandardCharsets.UTF_8);
+        int fillers = Math.max(0, (pageSize - head.length - tail.length + FILLER.length - 1) / FILLER.length);
+        byte[] body = new byte[head.length + fillers * FILLER.length + tail.length];
+        System.arraycopy(head, 0, body, 0, head.length);
+        for (int i = 0; i < fillers; i++) {
+            System.arraycopy(FILLER, 0, body, head.length + i * FILLER.length, FILLER.length);
+        }
+        System.arraycopy(tail, 0, body, body.length - tail.length, tail.length);
+        return body;
+    }
+
+    private static void appendRelative(StringBuilder sb, String host, String url) {
+        int start = url.indexOf("//") + 2;
+        if (url.startsWith(host, start) && url.charAt(start + host.length()) == '/') {
+            sb.append(url, start + host.length() + 1, url.length());
+        } else {
+            sb.append(url);
+        }
+    }
+
+    /**
+     * Returns pages the page links to, in order.
+     */
+    int[] links(int page) {
+        switch (shape) {
+            case CHAIN:
+                return page + 1 < pages ? new int[]{page + 1} : new int[0];
+            case CLIQUE: {
+                int size = links + 1;
+                int start = page - page % size;
+                int end = (int) Math.min((long) start + size, pages);
+                boolean next = page == start && end < pages;
+                int[] result = new int[end - start - 1 + (next ? 1 : 0)];
+                int n = 0;
+                for (int i = start; i < end; i++) {
+                    if (i != page) {
+                        result[n++] = i;
+                    }
+                }
+                if (next) {
+                    result[n] = end;
+                }
+                return result;
+            }
+            default: {
+                SplittableRandom random = random(page, LINKS);
+                double degree = Math.pow(1 - random.nextDouble(), -1 / (POWER_LAW_EXPONENT - 1));
+                int[] result = new int[(int) Math.min(degree, links)];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = random.nextInt(pages);
+                }
+                return result;
+            }
+        }
+    }
+
+    private byte[] image(int image) {
+        byte[] body = new byte[imageSize];
+        SplittableRandom random = random(image, IMAGES);
+        for (int i = 0; i < body.length; i += 8) {
+            long bits = random.nextLong();
+            for (int j = i; j < Math.min(i + 8, body.length); j++) {
+                body[j] = (byte) bits;
+                bits >>>= 8;
+            }
+        }
+        return body;
+    }
+}
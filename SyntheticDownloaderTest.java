@@ -0,0 +1,177 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Tests {@link SyntheticDownloader} and crawls of the sites it generates.
+ */
+public class SyntheticDownloaderTest {
+    private static final TestCounter COUNTER = new TestCounter();
+    private static final int PAGES = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        testSeed();
+        testSizes();
+        testUnknownPages();
+        testErrorRate();
+        testChain();
+        testClique();
+        testPowerLaw();
+        testParallelCrawl();
+        testLargePages();
+        testLoadDriver();
+        COUNTER.printStatus(SyntheticDownloaderTest.class);
+    }
+
+    private static void testSeed() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing same seed, same site");
+        SyntheticDownloader first = new SyntheticDownloader(1, PAGES, SyntheticDownloader.Shape.POWER_LAW);
+        SyntheticDownloader second = new SyntheticDownloader(1, PAGES, SyntheticDownloader.Shape.POWER_LAW);
+        SyntheticDownloader other = new SyntheticDownloader(2, PAGES, SyntheticDownloader.Shape.POWER_LAW);
+        boolean different = false;
+        for (int page = PAGES - 1; page >= 0; page -= 997) {
+            byte[] body = DownloaderTests.read(first, first.pageUrl(page));
+            Asserts.assertTrue("Page " + page, Arrays.equals(body, DownloaderTests.read(second, second.pageUrl(page))));
+            different |= !Arrays.equals(body, DownloaderTests.read(other, other.pageUrl(page)));
+        }
+        Asserts.assertTrue("Seed is ignored", different);
+        Asserts.assertTrue("Image", Arrays.equals(DownloaderTests.read(first, first.imageUrl(5)), DownloaderTests.read(second, second.imageUrl(5))));
+        COUNTER.passed();
+    }
+
+    private static void testSizes() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing sizes");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, PAGES, SyntheticDownloader.Shape.POWER_LAW);
+        downloader.setSizes(100_000, 1000);
+        int size = DownloaderTests.read(downloader, downloader.pageUrl(7)).length;
+        Asserts.assertTrue("Page size " + size, size >= 100_000 && size < 100_200);
+        Asserts.assertEquals("Image size", 1000, DownloaderTests.read(downloader, downloader.imageUrl(7)).length);
+        Asserts.assertEquals("Bytes", (long) size + 1000, downloader.getBytes());
+        COUNTER.passed();
+    }
+
+    private static void testUnknownPages() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing unknown pages");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, 10, SyntheticDownloader.Shape.CHAIN);
+        DownloaderTests.assertFails(downloader, downloader.pageUrl(10));
+        DownloaderTests.assertFails(downloader, downloader.pageUrl(3).replace("/p3", "/p03"));
+        DownloaderTests.assertFails(downloader, downloader.pageUrl(3).replace("h3", "h4"));
+        DownloaderTests.assertFails(downloader, "http://www.example.com/");
+        COUNTER.passed();
+    }
+
+    private static void testErrorRate() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing error rate");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, PAGES, SyntheticDownloader.Shape.CHAIN);
+        downloader.setErrorRates(0.25, 0);
+        int errors = 0;
+        for (int page = 0; page < 1000; page++) {
+            boolean failed = fails(downloader, downloader.pageUrl(page));
+            Asserts.assertEquals("Repeated error of " + page, failed, fails(downloader, downloader.pageUrl(page)));
+            errors += failed ? 1 : 0;
+        }
+        Asserts.assertTrue("Errors " + errors, errors > 200 && errors < 300);
+        COUNTER.passed();
+    }
+
+    private static void testChain() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing chain");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, PAGES, SyntheticDownloader.Shape.CHAIN);
+        downloader.setImages(0);
+        Page page = new SimpleWebCrawler(downloader).crawl(downloader.pageUrl(0), 50);
+        for (int i = 0; i < 49; i++) {
+            Asserts.assertEquals("Title", "Page " + i, page.getTitle());
+            Asserts.assertEquals("Links", 1, page.getLinks().size());
+            page = page.getLinks().get(0);
+        }
+        Asserts.assertEquals("Pages", 50L, downloader.getPages());
+        COUNTER.passed();
+    }
+
+    private static void testClique() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing clique");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, 25, SyntheticDownloader.Shape.CLIQUE);
+        downloader.setLinks(9);
+        Asserts.assertEquals("Clique start", "[1, 2, 3, 4, 5, 6, 7, 8, 9, 10]", Arrays.toString(downloader.links(0)));
+        Asserts.assertEquals("Clique member", "[10, 11, 12, 14, 15, 16, 17, 18, 19]", Arrays.toString(downloader.links(13)));
+        Asserts.assertEquals("Last clique", "[20, 21, 22, 24]", Arrays.toString(downloader.links(23)));
+        COUNTER.passed();
+    }
+
+    private static void testPowerLaw() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing power law");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, PAGES, SyntheticDownloader.Shape.POWER_LAW);
+        downloader.setLinks(1000);
+        int max = 0;
+        long total = 0;
+        for (int page = 0; page < 10_000; page++) {
+            int links = downloader.links(page).length;
+            max = Math.max(max, links);
+            total += links;
+        }
+        Asserts.assertTrue("Maximal out-degree " + max, max > 100 && max <= 1000);
+        Asserts.assertTrue("Mean out-degree " + total / 10_000.0, total < 10_000 * 10);
+        COUNTER.passed();
+    }
+
+    private static void testParallelCrawl() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing parallel crawl");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, PAGES, SyntheticDownloader.Shape.POWER_LAW);
+        downloader.setImages(0);
+        downloader.setErrorRates(0.05, 0);
+        String url = downloader.pageUrl(0);
+        Page expected = new SimpleWebCrawler(downloader).crawl(url, 4);
+        try (ParallelWebCrawler crawler = new ParallelWebCrawler(downloader, 10, 3, 2)) {
+            WebCrawlerTest.compare(expected, crawler.crawl(url, 4), new HashMap<>(), new HashMap<>(), downloader);
+        }
+        COUNTER.passed();
+    }
+
+    private static void testLargePages() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing parallel crawl of large pages");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, 200, SyntheticDownloader.Shape.POWER_LAW);
+        downloader.setImages(0);
+        downloader.setSizes(400_000, 0);
+        downloader.setHosts(2);
+        String url = downloader.pageUrl(0);
+        Page expected = new SimpleWebCrawler(downloader).crawl(url, 3);
+        try (ParallelWebCrawler crawler = new ParallelWebCrawler(downloader, 2, 2, 1)) {
+            WebCrawlerTest.compare(expected, crawler.crawl(url, 3), new HashMap<>(), new HashMap<>(), downloader);
+        }
+        COUNTER.passed();
+    }
+
+    private static void testLoadDriver() throws IOException {
+        COUNTER.nextTest();
+        System.err.println("=== Testing load driver");
+        SyntheticDownloader downloader = new SyntheticDownloader(1, PAGES, SyntheticDownloader.Shape.CLIQUE);
+        downloader.setImages(0);
+        String report = CrawlerLoadDriver.run(new SimpleWebCrawler(downloader), downloader, 3);
+        System.err.println(report);
+        Asserts.assertTrue("Report " + report, report.contains("pages/s"));
+        COUNTER.passed();
+    }
+
+    private static boolean fails(Downloader downloader, String url) {
+        try {
+            DownloaderTests.read(downloader, url);
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+}
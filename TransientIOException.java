@@ -0,0 +1,29 @@
+package crawler;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Download error that may not happen on another attempt, such as a timeout or an overloaded server.
+ * Such errors are retried by {@link RetryingDownloader} and never cached by {@link CachingDownloader}.
+ */
+public class TransientIOException extends IOException {
+    private static final long serialVersionUID = 4127038645791026013L;
+
+    public TransientIOException(String message) {
+        super(message);
+    }
+
+    public TransientIOException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Checks whether the error is transient: either a {@code TransientIOException},
+     * a socket timeout or a failed connection.
+     */
+    public static boolean isTransient(IOException e) {
+        return e instanceof TransientIOException || e instanceof SocketTimeoutException || e instanceof SocketException;
+    }
+}
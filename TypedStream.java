@@ -0,0 +1,12 @@
+package crawler;
+
+/**
+ * Body of a download that knows the media type the server declared for it.
+ * Streams wrapping another body report its type.
+ */
+interface TypedStream {
+    /**
+     * Returns the {@code Content-Type} of the body, or {@code null} if it was not declared.
+     */
+    String contentType();
+}
@@ -0,0 +1,196 @@
+package crawler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Assigns dense {@code int} ids to URLs.
+ * <p>
+ * URLs are kept once, as UTF-8 bytes in a shared arena. Lookups compare 64-bit fingerprints
+ * in a primitive open-addressing table, optionally guarded by a blocked Bloom filter
+ * that answers most lookups of unknown URLs with a single memory access.
+ * URLs with equal fingerprints are told apart by their stored bytes, so colliding URLs get distinct ids.
+ * Instances are not thread-safe.
+ */
+class UrlRegistry {
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] fingerprints = new long[INITIAL_CAPACITY];
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private long[] bloom;
+
+    private byte[] arena = new byte[INITIAL_CAPACITY * 32];
+    private int arenaSize;
+    private int[] offsets = new int[INITIAL_CAPACITY + 1];
+    private int size;
+
+    UrlRegistry(boolean bloomFilter) {
+        if (bloomFilter) {
+            bloom = new long[INITIAL_CAPACITY / 4];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns id of the URL or {@code -1} if it was not registered.
+     */
+    public int id(String url) {
+        long fingerprint = hash(url);
+        if (bloom != null && !mightContain(fingerprint)) {
+            return -1;
+        }
+        int slot = find(fingerprint, url);
+        return fingerprints[slot] == 0 ? -1 : ids[slot];
+    }
+
+    /**
+     * Returns id of the URL, registering it if necessary.
+     */
+    public int register(String url) {
+        long fingerprint = hash(url);
+        if (bloom == null || mightContain(fingerprint)) {
+            int slot = find(fingerprint, url);
+            if (fingerprints[slot] != 0) {
+                return ids[slot];
+            }
+        }
+        if (2 * (size + 1) > fingerprints.length) {
+            resize();
+        }
+        int slot = free(fingerprint);
+        fingerprints[slot] = fingerprint;
+        ids[slot] = size;
+        if (bloom != null) {
+            addToBloom(fingerprint);
+        }
+        store(url);
+        return size++;
+    }
+
+    public String url(int id) {
+        return new String(arena, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    private void store(String url) {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        if (arenaSize + bytes.length > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, arenaSize + bytes.length));
+        }
+        System.arraycopy(bytes, 0, arena, arenaSize, bytes.length);
+        arenaSize += bytes.length;
+        if (size + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[size + 1] = arenaSize;
+    }
+
+    /**
+     * Returns the slot of the URL, or the empty slot ending its probe sequence.
+     */
+    private int find(long fingerprint, String url) {
+        int mask = fingerprints.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (fingerprints[slot] != 0 && (fingerprints[slot] != fingerprint || !matches(ids[slot], url))) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int free(long fingerprint) {
+        int mask = fingerprints.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (fingerprints[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Compares the stored URL with the given one, without encoding ASCII URLs.
+     */
+    private boolean matches(int id, String url) {
+        int from = offsets[id];
+        int length = offsets[id + 1] - from;
+        if (length == url.length()) {
+            int i = 0;
+            while (i < length && url.charAt(i) < 0x80 && arena[from + i] == url.charAt(i)) {
+                i++;
+            }
+            if (i == length) {
+                return true;
+            } else if (url.charAt(i) < 0x80) {
+                return false;
+            }
+        }
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        return Arrays.equals(arena, from, from + length, bytes, 0, bytes.length);
+    }
+
+    private void resize() {
+        long[] oldFingerprints = fingerprints;
+        int[] oldIds = ids;
+        fingerprints = new long[oldFingerprints.length * 2];
+        ids = new int[oldIds.length * 2];
+        if (bloom != null) {
+            bloom = new long[fingerprints.length / 4];
+        }
+        for (int i = 0; i < oldFingerprints.length; i++) {
+            if (oldFingerprints[i] != 0) {
+                int slot = free(oldFingerprints[i]);
+                fingerprints[slot] = oldFingerprints[i];
+                ids[slot] = oldIds[i];
+                if (bloom != null) {
+                    addToBloom(oldFingerprints[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Both bits of a fingerprint live in a single word, picked by its high bits.
+     */
+    private long bloomMask(long fingerprint) {
+        return (1L << (fingerprint >>> 20)) | (1L << (fingerprint >>> 26));
+    }
+
+    private int bloomWord(long fingerprint) {
+        return (int) (fingerprint >>> 32) & (bloom.length - 1);
+    }
+
+    private boolean mightContain(long fingerprint) {
+        long mask = bloomMask(fingerprint);
+        return (bloom[bloomWord(fingerprint)] & mask) == mask;
+    }
+
+    private void addToBloom(long fingerprint) {
+        bloom[bloomWord(fingerprint)] |= bloomMask(fingerprint);
+    }
+
+    /**
+     * Returns the fingerprint of the URL used by the table.
+     */
+    long hash(String url) {
+        return fingerprint(url);
+    }
+
+    /**
+     * Returns non-zero 64-bit FNV-1a hash of the URL, finalized with MurmurHash3 mixer.
+     */
+    static long fingerprint(String url) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < url.length(); i++) {
+            hash = (hash ^ url.charAt(i)) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}
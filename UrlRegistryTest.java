@@ -0,0 +1,84 @@
+package crawler;
+
+import base.Asserts;
+import base.TestCounter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests {@link UrlRegistry}, with and without the Bloom filter.
+ */
+public class UrlRegistryTest {
+    private static final TestCounter COUNTER = new TestCounter();
+
+    public static void main(String[] args) {
+        for (boolean bloom : new boolean[]{false, true}) {
+            testRegister(new UrlRegistry(bloom), 100_000, "bloom filter " + bloom);
+            testRegister(colliding(bloom), 3000, "colliding fingerprints, bloom filter " + bloom);
+            testNonAscii(new UrlRegistry(bloom), "bloom filter " + bloom);
+            testNonAscii(colliding(bloom), "colliding fingerprints, bloom filter " + bloom);
+        }
+        COUNTER.printStatus(UrlRegistryTest.class);
+    }
+
+    /**
+     * Registers the URLs twice, checking that ids are dense and stable across resizes of the table.
+     */
+    private static void testRegister(UrlRegistry registry, int count, String name) {
+        COUNTER.nextTest();
+        System.err.println("=== Testing registration, " + name);
+        for (int i = 0; i < count; i++) {
+            Asserts.assertEquals("Unknown URL", -1, registry.id(url(i)));
+            Asserts.assertEquals("New id", i, registry.register(url(i)));
+        }
+        for (int i = 0; i < count; i++) {
+            Asserts.assertEquals("Known id", i, registry.register(url(i)));
+            Asserts.assertEquals("Id", i, registry.id(url(i)));
+            Asserts.assertEquals("URL", url(i), registry.url(i));
+        }
+        Asserts.assertEquals("Size", count, registry.size());
+        Asserts.assertEquals("Unknown URL", -1, registry.id(url(count)));
+        COUNTER.passed();
+    }
+
+    /**
+     * Checks URLs differing only in non-ASCII characters, and URLs of equal length and different bytes.
+     */
+    private static void testNonAscii(UrlRegistry registry, String name) {
+        COUNTER.nextTest();
+        System.err.println("=== Testing non-ASCII URLs, " + name);
+        List<String> urls = new ArrayList<>();
+        urls.add("http://www.example.com/\u043f\u0440\u0438\u0432\u0435\u0442");
+        urls.add("http://www.example.com/\u043f\u0440\u0438\u0432\u0435\u0439");
+        urls.add("http://www.example.com/\u00e9t\u00e9");
+        urls.add("http://www.example.com/ete");
+        urls.add("http://www.example.com/et\u00e9");
+        urls.add("http://www.example.com/etf");
+        for (int i = 0; i < urls.size(); i++) {
+            Asserts.assertEquals("New id", i, registry.register(urls.get(i)));
+        }
+        for (int i = 0; i < urls.size(); i++) {
+            Asserts.assertEquals("Id", i, registry.id(urls.get(i)));
+            Asserts.assertEquals("URL", urls.get(i), registry.url(i));
+        }
+        Asserts.assertEquals("Unknown URL", -1, registry.id("http://www.example.com/\u00e9t\u00e8"));
+        COUNTER.passed();
+    }
+
+    /**
+     * Returns a registry whose fingerprints depend only on the URL length.
+     */
+    private static UrlRegistry colliding(boolean bloom) {
+        return new UrlRegistry(bloom) {
+            @Override
+            long hash(String url) {
+                return url.length() % 7 + 1;
+            }
+        };
+    }
+
+    private static String url(int page) {
+        return "http://h" + page % 17 + ".example.com/p" + page + ".html";
+    }
+}
@@ -0,0 +1,276 @@
+package crawler;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Resolves links against a pre-parsed page URL, producing canonical URLs.
+ * <p>
+ * A canonical URL has no fragment, lowercase scheme and host, no default port
+ * and no dot segments in its path; it is used as the key of a page or an image.
+ * {@code http} and {@code https} links are resolved and normalized in a single pass
+ * over the link, allocating only the resulting string.
+ * Other schemes are resolved with {@link URL}. Instances are not thread-safe.
+ */
+class UrlResolver {
+    private final String scheme;
+    private final String authority;
+    private final String path;
+    private final String query;
+    private final String base;
+    private final URL url;
+    private final StringBuilder sb = new StringBuilder(128);
+
+    /**
+     * Parses the base URL.
+     *
+     * @throws MalformedURLException if the URL is not absolute or has an unknown scheme
+     */
+    UrlResolver(String base) throws MalformedURLException {
+        String link = trim(base);
+        int end = fragment(link);
+        int colon = scheme(link, end);
+        String scheme = httpScheme(link, colon);
+        if (scheme != null && link.startsWith("//", colon + 1)) {
+            this.scheme = scheme;
+            int authorityEnd = indexOf(link, "/?", colon + 3, end);
+            int queryStart = indexOf(link, "?", authorityEnd, end);
+            appendAuthority(scheme, link, colon + 3, authorityEnd);
+            this.authority = sb.toString();
+            sb.setLength(0);
+            appendPath(link, authorityEnd, queryStart);
+            this.path = sb.toString();
+            this.query = queryStart < end ? link.substring(queryStart + 1, end) : null;
+            this.base = scheme + "://" + authority + path + (query == null ? "" : "?" + query);
+            this.url = null;
+        } else {
+            this.url = new URL(link.substring(0, end));
+            this.scheme = null;
+            this.authority = null;
+            this.path = null;
+            this.query = null;
+            this.base = url.toString();
+        }
+    }
+
+    /**
+     * Returns canonical form of the absolute URL, or the URL itself if it is not valid.
+     */
+    static String canonical(String url) {
+        try {
+            return new UrlResolver(url).toString();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+    /**
+     * Returns canonical URL of the link, or {@code null} if the link is not a valid URL.
+     */
+    String resolve(String href) {
+        String link = trim(href);
+        int end = fragment(link);
+        if (url != null) {
+            return resolveUrl(link, end);
+        }
+
+        int colon = scheme(link, end);
+        int start = 0;
+        if (colon >= 0) {
+            String linkScheme = httpScheme(link, colon);
+            if (linkScheme == null) {
+                return resolveUrl(link, end);
+            }
+            if (link.startsWith("//", colon + 1)) {
+                int authorityEnd = indexOf(link, "/?", colon + 3, end);
+                int queryStart = indexOf(link, "?", authorityEnd, end);
+                sb.setLength(0);
+                sb.append(linkScheme).append("://");
+                appendAuthority(linkScheme, link, colon + 3, authorityEnd);
+                appendPath(link, authorityEnd, queryStart);
+                return appendQuery(link, queryStart, end);
+            }
+            if (linkScheme != scheme) {
+                return resolveUrl(link, end);
+            }
+            start = colon + 1;
+        }
+
+        sb.setLength(0);
+        sb.append(scheme).append(':');
+        if (link.startsWith("//", start)) {
+            int authorityEnd = indexOf(link, "/?", start + 2, end);
+            int queryStart = indexOf(link, "?", authorityEnd, end);
+            sb.append("//");
+            appendAuthority(scheme, link, start + 2, authorityEnd);
+            appendPath(link, authorityEnd, queryStart);
+            return appendQuery(link, queryStart, end);
+        }
+
+        sb.append("//").append(authority);
+        int queryStart = indexOf(link, "?", start, end);
+        if (start == queryStart) {
+            sb.append(path);
+            if (queryStart == end) {
+                if (query != null) {
+                    sb.append('?').append(query);
+                }
+                return sb.toString();
+            }
+        } else if (link.charAt(start) == '/') {
+            appendPath(link, start, queryStart);
+        } else {
+            int root = sb.length();
+            sb.append(path, 0, Math.max(path.lastIndexOf('/'), 0));
+            appendSegments(link, start, queryStart, root);
+        }
+        return appendQuery(link, queryStart, end);
+    }
+
+    /**
+     * Resolves the link with {@link URL}, canonicalizing the result if it is an {@code http} or {@code https} URL.
+     */
+    private String resolveUrl(String link, int end) {
+        try {
+            URL resolved = new URL(url == null ? new URL(base) : url, link.substring(0, end));
+            String protocol = resolved.getProtocol();
+            return "http".equals(protocol) || "https".equals(protocol) ? canonical(resolved.toString()) : resolved.toString();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private String appendQuery(String link, int queryStart, int end) {
+        if (queryStart < end) {
+            sb.append(link, queryStart, end);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends authority with lowercase host and without the default port.
+     */
+    private void appendAuthority(String scheme, String link, int from, int to) {
+        int host = link.lastIndexOf('@', to - 1);
+        host = host < from ? from : host + 1;
+        sb.append(link, from, host);
+        int port = link.lastIndexOf(':', to - 1);
+        if (port < host || link.lastIndexOf(']', to - 1) > port) {
+            port = to;
+        }
+        for (int i = host; i < port; i++) {
+            sb.append(Character.toLowerCase(link.charAt(i)));
+        }
+        if (port < to && !isDefaultPort(scheme, link, port + 1, to)) {
+            sb.append(link, port, to);
+        }
+    }
+
+    private static boolean isDefaultPort(String scheme, String link, int from, int to) {
+        String port = "http".equals(scheme) ? "80" : "443";
+        return from == to || (to - from == port.length() && link.startsWith(port, from));
+    }
+
+    /**
+     * Appends an absolute or empty path, removing dot segments.
+     */
+    private void appendPath(String link, int from, int to) {
+        if (from < to) {
+            appendSegments(link, from + 1, to, sb.length());
+        }
+    }
+
+    /**
+     * Appends slash-separated segments, removing dot segments down to {@code root}.
+     */
+    private void appendSegments(String link, int from, int to, int root) {
+        int i = from;
+        while (true) {
+            int next = indexOf(link, "/", i, to);
+            boolean last = next == to;
+            int length = next - i;
+            if (length == 1 && link.charAt(i) == '.') {
+                if (last) {
+                    sb.append('/');
+                }
+            } else if (length == 2 && link.charAt(i) == '.' && link.charAt(i + 1) == '.') {
+                int slash = sb.lastIndexOf("/");
+                if (slash >= root) {
+                    sb.setLength(slash);
+                }
+                if (last) {
+                    sb.append('/');
+                }
+            } else {
+                sb.append('/').append(link, i, next);
+            }
+            if (last) {
+                return;
+            }
+            i = next + 1;
+        }
+    }
+
+    private static String trim(String link) {
+        int from = 0;
+        int to = link.length();
+        while (from < to && link.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && link.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        return from == 0 && to == link.length() ? link : link.substring(from, to);
+    }
+
+    private static int fragment(String link) {
+        int hash = link.indexOf('#');
+        return hash < 0 ? link.length() : hash;
+    }
+
+    /**
+     * Returns position of the colon ending the scheme or {@code -1} if there is no scheme.
+     */
+    private static int scheme(String link, int end) {
+        for (int i = 0; i < end; i++) {
+            char c = link.charAt(i);
+            if (c == ':') {
+                return i == 0 ? -1 : i;
+            }
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (!letter && (i == 0 || !((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.'))) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns {@code "http"} or {@code "https"} if the link has such scheme, {@code null} otherwise.
+     */
+    private static String httpScheme(String link, int colon) {
+        if (colon == 4 && link.regionMatches(true, 0, "http", 0, 4)) {
+            return "http";
+        } else if (colon == 5 && link.regionMatches(true, 0, "https", 0, 5)) {
+            return "https";
+        }
+        return null;
+    }
+
+    private static int indexOf(String link, String chars, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (chars.indexOf(link.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Returns the canonical base URL.
+     */
+    @Override
+    public String toString() {
+        return base;
+    }
+}
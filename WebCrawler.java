@@ -1,8 +1,27 @@
 package crawler;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 /**
  * @author Georgiy Korneev (kgeorgiy@kgeorgiy.info)
  */
 public interface WebCrawler {
     Page crawl(String url, int depth);
+
+    /**
+     * Crawls from every seed to the given depth and returns the root pages by seed.
+     * Crawlers sharing work between seeds return the roots within a single graph;
+     * this implementation crawls the seeds one by one into separate graphs.
+     */
+    default Map<String, Page> crawlAll(Collection<String> seeds, int depth) {
+        final Map<String, Page> roots = new LinkedHashMap<>();
+        for (final String seed : seeds) {
+            if (!roots.containsKey(seed)) {
+                roots.put(seed, crawl(seed, depth));
+            }
+        }
+        return roots;
+    }
 }
@@ -8,10 +8,14 @@ import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -20,6 +24,11 @@ import java.util.stream.Collectors;
  */
 public class WebCrawlerTest {
     protected final static TestCounter COUNTER = new TestCounter();
+    protected static CrawlerFactory crawlers = SimpleWebCrawler::new;
+
+    public interface CrawlerFactory {
+        WebCrawler create(Downloader downloader) throws IOException;
+    }
 
     public static void main(String[] args) {
         testSynthetic("absolute-links.html", 1);
@@ -40,6 +49,7 @@ public class WebCrawlerTest {
         testSynthetic("more-entities.html", 2);
         testBase("https://www.kgeorgiy.info/courses/prog-intro/", 1);
         testBase("https://www.kgeorgiy.info/courses/", 2);
+        testAll("base_cache.zip", 2, "https://www.kgeorgiy.info/courses/", "https://www.kgeorgiy.info/courses/prog-intro/");
         COUNTER.printStatus(WebCrawlerTest.class);
     }
 
@@ -78,10 +88,96 @@ public class WebCrawlerTest {
         return actual;
     }
 
+    /**
+     * Checks that a batch crawl downloads every URL once, shares pages between seeds
+     * and has every page of the separate crawls of the seeds.
+     * Downloads of {@link DistributedWebCrawler} are reported by its workers.
+     */
+    public static void testAll(final String cache, final int depth, final String... seeds) {
+        COUNTER.nextTest();
+        System.err.println("=== Testing " + String.join(", ", seeds));
+        try (final ZipDownloader downloader = new ZipDownloader(cache)) {
+            final Map<String, Integer> downloads = new ConcurrentHashMap<>();
+            final Downloader counting = url -> {
+                downloads.merge(url, 1, Integer::sum);
+                return downloader.download(url);
+            };
+            final Map<String, Page> roots = crawlAll(Arrays.asList(seeds), depth, counting, downloads);
+            Asserts.assertTrue("Nothing downloaded", !downloads.isEmpty());
+            downloads.forEach((url, count) -> Asserts.assertEquals("Downloads of " + url, 1, count));
+
+            final Map<String, Page> pages = new HashMap<>();
+            for (final String seed : seeds) {
+                collect(roots.get(seed), pages);
+                contains(crawl(seed, depth, downloader), roots.get(seed), new HashSet<>());
+            }
+        } catch (IOException e) {
+            throw new AssertionError("Invalid test cache " + cache, e);
+        }
+        COUNTER.passed();
+    }
+
+    private static Map<String, Page> crawlAll(final List<String> seeds, final int depth, final Downloader downloader, final Map<String, Integer> downloads) {
+        try {
+            final WebCrawler crawler = crawlers.create(downloader);
+            try {
+                final Map<String, Page> roots = crawler.crawlAll(seeds, depth);
+                if (crawler instanceof DistributedWebCrawler) {
+                    ((DistributedWebCrawler) crawler).getDownloads().forEach((url, count) -> downloads.merge(url, count, Integer::sum));
+                }
+                return roots;
+            } finally {
+                if (crawler instanceof AutoCloseable) {
+                    ((AutoCloseable) crawler).close();
+                }
+            }
+        } catch (Exception e) {
+            throw new AssertionError("Error crawling " + seeds, e);
+        }
+    }
+
+    private static void collect(final Page page, final Map<String, Page> pages) {
+        final Page other = pages.putIfAbsent(page.getUrl(), page);
+        if (other == null) {
+            for (final Page link : page.getLinks()) {
+                collect(link, pages);
+            }
+        } else {
+            Asserts.assertSame("Page for " + page.getUrl(), other, page);
+        }
+    }
+
+    /**
+     * Checks that every page crawled from the seed alone is crawled in the batch;
+     * the batch may crawl pages deeper if they are closer to another seed.
+     */
+    private static void contains(final Page expected, final Page actual, final Set<Page> visited) {
+        if (!visited.add(expected)) {
+            return;
+        }
+        Asserts.assertEquals("Url of " + expected.getUrl(), expected.getUrl(), actual.getUrl());
+        if (expected.getTitle().isEmpty() && expected.getLinks().isEmpty() && expected.getImages().isEmpty()) {
+            return;
+        }
+        Asserts.assertEquals("Title of " + expected.getUrl(), expected.getTitle(), actual.getTitle());
+        Asserts.assertEquals("Links of " + expected.getUrl(), links(expected), links(actual));
+        Asserts.assertEquals("Images of " + expected.getUrl(), images(expected), images(actual));
+        for (int i = 0; i < expected.getLinks().size(); i++) {
+            contains(expected.getLinks().get(i), actual.getLinks().get(i), visited);
+        }
+    }
+
     private static Page crawl(final String url, final int depth, final Downloader downloader) {
         try {
-            return new SimpleWebCrawler(downloader).crawl(url, depth);
-        } catch (IOException e) {
+            final WebCrawler crawler = crawlers.create(downloader);
+            try {
+                return crawler.crawl(url, depth);
+            } finally {
+                if (crawler instanceof AutoCloseable) {
+                    ((AutoCloseable) crawler).close();
+                }
+            }
+        } catch (Exception e) {
             throw new AssertionError("Error crawling " + url, e);
         }
     }
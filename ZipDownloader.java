@@ -2,30 +2,268 @@ package crawler;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
+ * Replays pages from a zip archive of cache records.
+ * <p>
+ * The archive is memory-mapped and its central directory is indexed by URL once at open time.
+ * Stored entries are served directly from the mapping, deflated ones are inflated on the fly.
+ * {@link #downloadTo} writes stored entries to the file straight from the mapping.
+ * The index is immutable, so concurrent downloads do not lock.
+ * Archives that cannot be mapped (larger than 2 GiB or zip64) are read through {@link ZipFile}.
+ *
  * @author Georgiy Korneev (kgeorgiy@kgeorgiy.info)
  */
 public class ZipDownloader implements Downloader, AutoCloseable {
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+    private static final int CENTRAL_SIZE = 46;
+    private static final int LOCAL_SIZE = 30;
+
     private final ZipFile file;
+    private final MappedByteBuffer archive;
+    private final Map<String, Entry> entries;
+
+    private static class Entry {
+        private final int method;
+        private final int offset;
+        private final int size;
+        private final long identity;
+
+        private Entry(final int method, final int offset, final int size, final long identity) {
+            this.method = method;
+            this.offset = offset;
+            this.size = size;
+            this.identity = identity;
+        }
+    }
 
     public ZipDownloader(final String zipFile) throws IOException {
-        file = new ZipFile(zipFile);
+        try (final FileChannel channel = FileChannel.open(Paths.get(zipFile), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                archive = null;
+            } else {
+                archive = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                archive.order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        entries = archive == null ? null : index(archive);
+        file = entries == null ? new ZipFile(zipFile) : null;
+    }
+
+    /**
+     * Indexes the central directory, returns {@code null} if the archive is not supported.
+     */
+    private static Map<String, Entry> index(final ByteBuffer archive) throws IOException {
+        int end = archive.limit() - END_SIZE;
+        final int min = Math.max(0, end - 0xFFFF);
+        while (end >= min && archive.getInt(end) != END_SIGNATURE) {
+            end--;
+        }
+        if (end < min) {
+            throw new IOException("Not a zip archive");
+        }
+        final int count = archive.getShort(end + 10) & 0xFFFF;
+        final long directoryOffset = archive.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+            return null;
+        }
+
+        final Map<String, Entry> entries = new HashMap<>(count * 2);
+        int position = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (archive.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new IOException("Invalid zip central directory");
+            }
+            final int method = archive.getShort(position + 10) & 0xFFFF;
+            final long crc = archive.getInt(position + 16) & 0xFFFFFFFFL;
+            final long compressedSize = archive.getInt(position + 20) & 0xFFFFFFFFL;
+            final long uncompressedSize = archive.getInt(position + 24) & 0xFFFFFFFFL;
+            final int nameLength = archive.getShort(position + 28) & 0xFFFF;
+            final int extraLength = archive.getShort(position + 30) & 0xFFFF;
+            final int commentLength = archive.getShort(position + 32) & 0xFFFF;
+            final long localOffset = archive.getInt(position + 42) & 0xFFFFFFFFL;
+            if (compressedSize == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) {
+                return null;
+            }
+
+            final byte[] name = new byte[nameLength];
+            for (int j = 0; j < nameLength; j++) {
+                name[j] = archive.get(position + CENTRAL_SIZE + j);
+            }
+            final int local = (int) localOffset;
+            if (archive.getInt(local) != LOCAL_SIGNATURE) {
+                throw new IOException("Invalid zip local header");
+            }
+            final int data = local + LOCAL_SIZE + (archive.getShort(local + 26) & 0xFFFF) + (archive.getShort(local + 28) & 0xFFFF);
+            entries.put(key(new String(name, StandardCharsets.UTF_8)), new Entry(method, data, (int) compressedSize, identity(crc, uncompressedSize)));
+            position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the URL the entry was stored for or the entry name if it cannot be restored.
+     */
+    private static String key(final String name) {
+        if (name.length() >= 200) {
+            return name;
+        }
+        try {
+            return URLDecoder.decode(name, "UTF-8");
+        } catch (final IllegalArgumentException e) {
+            return name;
+        } catch (final UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
     }
 
     @Override
     public InputStream download(final String url) throws IOException {
-        final ZipEntry entry = file.getEntry(CachingDownloader.encode(url));
+        if (file != null) {
+            final ZipEntry entry = file.getEntry(CachingDownloader.encode(url));
+            if (entry == null) {
+                throw new IOException("Url not found " + url);
+            }
+            return CachingDownloader.readCached(url, file.getInputStream(entry));
+        }
+
+        final Entry entry = entry(url);
+        final InputStream is = new ByteBufferInputStream(data(entry));
+        if (entry.method == ZipEntry.STORED) {
+            return CachingDownloader.readCached(url, is);
+        } else if (entry.method == ZipEntry.DEFLATED) {
+            return CachingDownloader.readCached(url, new InflaterInputStream(is, new Inflater(true)) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inf.end();
+                }
+            });
+        } else {
+            throw new IOException("Unsupported compression method " + entry.method + " for " + url);
+        }
+    }
+
+    /**
+     * Returns identity made of the CRC and the size of the entry, the archive is never modified.
+     */
+    @Override
+    public long identity(final String url) throws IOException {
+        if (file != null) {
+            final ZipEntry entry = file.getEntry(CachingDownloader.encode(url));
+            return entry == null ? 0 : identity(entry.getCrc(), entry.getSize());
+        }
+        Entry entry = entries.get(url);
         if (entry == null) {
-            throw new IOException("Url not found " + url);
+            entry = entries.get(CachingDownloader.encode(url));
         }
-        return CachingDownloader.readCached(url, file.getInputStream(entry));
+        return entry == null ? 0 : entry.identity;
+    }
+
+    private static long identity(final long crc, final long size) {
+        return crc << 32 ^ size;
+    }
+
+    @Override
+    public void downloadTo(final String url, final Path target) throws IOException {
+        final Entry entry = file == null ? entry(url) : null;
+        if (entry == null || entry.method != ZipEntry.STORED) {
+            Downloader.super.downloadTo(url, target);
+            return;
+        }
+        final ByteBuffer data = data(entry);
+        CachingDownloader.readCached(url, new ByteBufferInputStream(data));
+        try (final FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        }
+    }
+
+    private Entry entry(final String url) throws IOException {
+        Entry entry = entries.get(url);
+        if (entry == null) {
+            entry = entries.get(CachingDownloader.encode(url));
+            if (entry == null) {
+                throw new IOException("Url not found " + url);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Returns compressed data of the entry as a slice of the mapping.
+     */
+    private ByteBuffer data(final Entry entry) {
+        final ByteBuffer data = archive.duplicate();
+        data.position(entry.offset).limit(entry.offset + entry.size);
+        return data.slice();
     }
 
     @Override
     public void close() throws IOException {
-        file.close();
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            final int read = Math.min(len, buffer.remaining());
+            buffer.get(b, off, read);
+            return read;
+        }
+
+        @Override
+        public long skip(final long n) {
+            final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
     }
 }
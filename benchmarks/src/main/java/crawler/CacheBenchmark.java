@@ -0,0 +1,102 @@
+package crawler;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures {@link CachingDownloader} hits and misses over every store, with and without the hot tier.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheBenchmark {
+    private static final int HITS = 1024;
+
+    @Param({"file", "segmented", "dedup"})
+    public String store;
+
+    @Param({"true", "false"})
+    public boolean hot;
+
+    private final byte[] body = ParseBenchmark.page(10);
+    private final byte[] buffer = new byte[8192];
+    private final String[] urls = new String[HITS];
+    private Path directory;
+    private CacheStore cache;
+    private CachingDownloader downloader;
+    private long misses;
+    private int hits;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("benchmark");
+        cache = store(store, directory);
+        Downloader upstream = url -> new ByteArrayInputStream(body);
+        downloader = hot ? new CachingDownloader(upstream, cache) : new CachingDownloader(upstream, cache, 0, 0);
+        for (int i = 0; i < HITS; i++) {
+            urls[i] = "http://www.example.com/courses/prog-intro/tests/crawler/page" + i + ".html?query=" + i + "#anchor";
+            consume(downloader.download(urls[i]), null);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cache.close();
+        delete(directory);
+    }
+
+    private static CacheStore store(String name, Path directory) throws IOException {
+        switch (name) {
+            case "file":
+                return new FileCacheStore(directory);
+            case "segmented":
+                return new SegmentedCacheStore(directory);
+            default:
+                return new DedupCacheStore(new FileCacheStore(directory), directory);
+        }
+    }
+
+    /**
+     * Deletes the temporary directory with all its contents.
+     */
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public void hit(Blackhole blackhole) throws IOException {
+        consume(downloader.download(urls[hits++ & (HITS - 1)]), blackhole);
+    }
+
+    @Benchmark
+    public void miss(Blackhole blackhole) throws IOException {
+        consume(downloader.download("http://bench/" + misses++), blackhole);
+    }
+
+    private void consume(InputStream is, Blackhole blackhole) throws IOException {
+        try (InputStream in = is) {
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                if (blackhole != null) {
+                    blackhole.consume(read);
+                }
+            }
+        }
+    }
+}
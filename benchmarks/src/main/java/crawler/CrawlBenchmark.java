@@ -0,0 +1,61 @@
+package crawler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures end-to-end crawls of a {@link SyntheticDownloader} site; images are written to a temporary directory.
+ * Allocation reported by {@code -prof gc} includes pool threads of the crawlers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrawlBenchmark {
+    @Param({"simple", "parallel"})
+    public String crawler;
+
+    @Param({"2", "3"})
+    public int depth;
+
+    private SyntheticDownloader downloader;
+    private Path images;
+    private WebCrawler instance;
+
+    @Setup
+    public void setUp() throws IOException {
+        Logger.setListener(message -> {
+        });
+        downloader = new SyntheticDownloader(42, 100_000, SyntheticDownloader.Shape.POWER_LAW);
+        downloader.setLinks(32);
+        images = Files.createTempDirectory("benchmark");
+        if (crawler.equals("simple")) {
+            SimpleWebCrawler simple = new SimpleWebCrawler(downloader);
+            simple.setImageDirectory(images);
+            instance = simple;
+        } else {
+            ParallelWebCrawler parallel = new ParallelWebCrawler(downloader, 8, 4, 4);
+            parallel.setImageDirectory(images);
+            instance = parallel;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (instance instanceof ParallelWebCrawler) {
+            ((ParallelWebCrawler) instance).close();
+        }
+        CacheBenchmark.delete(images);
+    }
+
+    @Benchmark
+    public Page crawl() {
+        return instance.crawl(downloader.pageUrl(0), depth);
+    }
+}
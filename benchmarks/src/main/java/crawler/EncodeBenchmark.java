@@ -0,0 +1,31 @@
+package crawler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding of URLs to cache file names.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EncodeBenchmark {
+    private final String[] urls = new String[1024];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < urls.length; i++) {
+            urls[i] = "http://www.example.com/courses/prog-intro/tests/crawler/page" + i + ".html?query=" + i + "#anchor";
+        }
+    }
+
+    @Benchmark
+    public String encode() {
+        return CachingDownloader.encode(urls[next++ & (urls.length - 1)]);
+    }
+}
@@ -0,0 +1,53 @@
+package crawler;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of pages with entities, comments, scripts and relative links.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParseBenchmark {
+    @Param({"10", "1000", "100000"})
+    public int links;
+
+    private final PageReader reader = new PageReader(Long.MAX_VALUE);
+    private UrlResolver base;
+    private byte[] page;
+
+    @Setup
+    public void setUp() throws IOException {
+        base = new UrlResolver("http://www.example.com/dir/page.html");
+        page = page(links);
+    }
+
+    static byte[] page(int links) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>Benchmark &amp; page &mdash; ")
+                .append(links).append("</title>\n<script>var a = '<a href=\"ignored\">';</script></head>\n<body>\n");
+        for (int i = 0; i < links; i++) {
+            sb.append("<p>Paragraph &lt;").append(i).append("&gt;&nbsp;text</p>\n");
+            sb.append("<a class=\"link\" href=\"../other/page").append(i).append(".html#anchor\">link ").append(i).append("</a>\n");
+            if (i % 10 == 0) {
+                sb.append("<!-- <a href=\"commented").append(i).append(".html\"> -->\n");
+                sb.append("<img alt='image' src='/images/image").append(i).append(".png'>\n");
+            }
+        }
+        sb.append("</body></html>\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Document parse() throws IOException {
+        return Document.parse(base, new ByteArrayInputStream(page), reader);
+    }
+}